@@ -10,6 +10,10 @@ import org.jnetpcap.packet.JPacket;
  * to directly access headers of Ethernet or higher level protocols.
  *
  * Each packet has a unique sequentially assigned id.
+ *
+ * A packet may belong to a <code>PacketPool</code>, in which case its buffer
+ * gets reused for a later frame. The clients have to call release() once they
+ * are done with the packet, which does nothing for packets that are not pooled.
  * 
  * @author Alexandre Bezroutchko
  * @author Gremwell bvba
@@ -17,14 +21,47 @@ import org.jnetpcap.packet.JPacket;
 public class IngressPacket {
 
     private static int nextId = 1;
-    public final int id;
+    public int id;
     public final Port port;
     public final JPacket packet;
+    // the pool this packet returns to, null if it was allocated for one frame
+    private final PacketPool pool;
+    // System.nanoTime() when libpcap returned the frame, set by the port
+    long capturedNanos;
 
     protected IngressPacket(Port port, JPacket packet) {
+        this(port, packet, null);
+    }
+
+    IngressPacket(Port port, JPacket packet, PacketPool pool) {
         id = nextId();
         this.port = port;
         this.packet = packet;
+        this.pool = pool;
+    }
+
+    /**
+     * Hands the packet buffer back to its pool. The packet must not be used
+     * after this call.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    /**
+     * @return true if the packet buffer gets reused after release()
+     */
+    boolean isPooled() {
+        return pool != null;
+    }
+
+    /**
+     * Invoked by the pool when the packet gets reused for a new frame.
+     */
+    void renew() {
+        id = nextId();
     }
 
     private synchronized static int nextId() {
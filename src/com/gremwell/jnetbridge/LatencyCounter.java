@@ -0,0 +1,82 @@
+package com.gremwell.jnetbridge;
+
+/**
+ * This class accumulates latency samples of one thread of a port: the
+ * number of samples, their average and their maximum. Samples are recorded
+ * by a single thread and may be read from any thread.
+ *
+ * @author Philippe Venne
+ */
+public class LatencyCounter {
+
+    private final String name;
+    // counters, in nanoseconds
+    private volatile long samples = 0;
+    private volatile long totalNanos = 0;
+    private volatile long maxNanos = 0;
+    // System.nanoTime() when the last sample was recorded
+    private volatile long lastSampleNanos = 0;
+
+    /**
+     * @param name Prefix of the counters in getStat()
+     */
+    public LatencyCounter(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Invoked by the measured thread, when the packet is done.
+     *
+     * @param startNanos System.nanoTime() when the packet was started, a
+     * later time counts as a latency of 0
+     */
+    void record(long startNanos) {
+        long now = System.nanoTime();
+        long nanos = now - startNanos;
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        // written before the sample count, so readers seeing a sample see its time
+        lastSampleNanos = now;
+        samples++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return System.nanoTime() when the last sample was recorded, 0 before
+     * the first one
+     */
+    public long getLastSampleNanos() {
+        return lastSampleNanos;
+    }
+
+    /**
+     * @return The average latency in microseconds
+     */
+    public long getAverageMicros() {
+        long n = samples;
+        return (n == 0) ? 0 : totalNanos / n / 1000;
+    }
+
+    /**
+     * @return The largest latency in microseconds
+     */
+    public long getMaxMicros() {
+        return maxNanos / 1000;
+    }
+
+    /**
+     * @return A string containing the counters.
+     */
+    public String getStat() {
+        return name + "Latency=" + getAverageMicros() + "us, "
+                + name + "LatencyMax=" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,67 @@
+package com.gremwell.jnetbridge;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jnetpcap.packet.PcapPacket;
+
+/**
+ * This class holds a fixed set of preallocated <code>IngressPacket</code>s.
+ * A port copies every received frame into a recycled packet buffer taken from
+ * the pool instead of allocating a new deep copy, and the client of the port
+ * hands the buffer back by calling <code>IngressPacket.release()</code> once
+ * it is done with it.
+ *
+ * When the pool is empty (the clients hold on to every buffer), acquire()
+ * returns null and the port falls back to allocating a copy.
+ *
+ * @author Philippe Venne
+ */
+class PacketPool {
+
+    // Large enough for an Ethernet frame with a VLAN tag, its pcap header and
+    // its scanned state, so that recycled buffers never have to grow
+    static final int PACKET_BUFFER_SIZE = 2 * 1024;
+
+    private final BlockingQueue<IngressPacket> freePackets;
+    private final int size;
+    // counters, read by getStat() from other threads
+    private final AtomicLong misses = new AtomicLong();
+
+    PacketPool(Port port, int size) {
+        this.size = size;
+        freePackets = new ArrayBlockingQueue<IngressPacket>(size);
+
+        for (int i = 0; i < size; i++) {
+            freePackets.add(new IngressPacket(port, new PcapPacket(PACKET_BUFFER_SIZE), this));
+        }
+    }
+
+    /**
+     * @return A free packet, or null if all the packets are in use
+     */
+    IngressPacket acquire() {
+        IngressPacket packet = freePackets.poll();
+        if (packet == null) {
+            misses.incrementAndGet();
+        } else {
+            packet.renew();
+        }
+        return packet;
+    }
+
+    /**
+     * Invoked by <code>IngressPacket.release()</code>, from any thread.
+     */
+    void release(IngressPacket packet) {
+        freePackets.offer(packet);
+    }
+
+    /**
+     * @return A string containing the pool usage counters.
+     */
+    String getStat() {
+        return "poolFree=" + freePackets.size() + "/" + size
+                + ", poolMiss=" + misses.get();
+    }
+}
@@ -0,0 +1,158 @@
+package com.gremwell.jnetbridge;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a bounded ring of ingress packets between the pump thread of
+ * one port (the producer) and one client thread (the consumer). The slots are
+ * preallocated, so queueing a packet allocates nothing.
+ *
+ * The producer may discard the oldest queued packet when the ring is full.
+ * Both threads move the head with compareAndSet(), so a packet is either
+ * taken by the consumer or dropped by the producer, never both.
+ *
+ * @author Philippe Venne
+ */
+class PacketRing {
+
+    private final AtomicReferenceArray<IngressPacket> slots;
+    private final int mask;
+    // sequence number of the next packet to take, moved by both threads
+    private final AtomicLong head = new AtomicLong();
+    // sequence number of the next packet to put, moved by the producer only
+    private final AtomicLong tail = new AtomicLong();
+    // threads parked on an empty (consumer) or full (producer) ring
+    private volatile Thread waitingConsumer = null;
+    private volatile Thread waitingProducer = null;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of 2
+     */
+    PacketRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<IngressPacket>(size);
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return The number of packets currently queued
+     */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Invoked by the producer. The ring must not be full.
+     */
+    void put(IngressPacket packet) {
+        long t = tail.get();
+        slots.set((int) t & mask, packet);
+        tail.set(t + 1);
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Invoked by the producer to make room in a full ring.
+     *
+     * @return The oldest queued packet, or null if the consumer took it first
+     */
+    IngressPacket dropOldest() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        IngressPacket packet = slots.get((int) h & mask);
+        return head.compareAndSet(h, h + 1) ? packet : null;
+    }
+
+    /**
+     * Invoked by the producer, blocks until the ring has a free slot.
+     *
+     * @throws InterruptedException
+     */
+    void awaitSpace() throws InterruptedException {
+        waitingProducer = Thread.currentThread();
+        try {
+            while (size() == capacity()) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingProducer = null;
+        }
+    }
+
+    /**
+     * Invoked by the consumer, does not block.
+     *
+     * @return The oldest queued packet, or null if the ring is empty
+     */
+    IngressPacket poll() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+
+            IngressPacket packet = slots.get((int) h & mask);
+            if (head.compareAndSet(h, h + 1)) {
+                Thread producer = waitingProducer;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+                return packet;
+            }
+            // the producer dropped this packet, try the next one
+        }
+    }
+
+    /**
+     * Invoked by the consumer. Will block until a packet is available.
+     *
+     * @return The oldest queued packet
+     * @throws InterruptedException
+     */
+    IngressPacket take() throws InterruptedException {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                // publish ourselves before checking again, so a put() in
+                // between cannot be missed
+                waitingConsumer = Thread.currentThread();
+                try {
+                    if (h == tail.get()) {
+                        LockSupport.park(this);
+                    }
+                } finally {
+                    waitingConsumer = null;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                continue;
+            }
+
+            IngressPacket packet = slots.get((int) h & mask);
+            if (head.compareAndSet(h, h + 1)) {
+                Thread producer = waitingProducer;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+                return packet;
+            }
+            // the producer dropped this packet, try the next one
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.gremwell.jnetbridge;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import org.jnetpcap.JBufferHandler;
 import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapBpfProgram;
+import org.jnetpcap.PcapHeader;
 import org.jnetpcap.PcapStat;
 import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.nio.JMemory;
@@ -24,17 +27,46 @@ import org.jnetpcap.winpcap.WinPcapRmtAuth;
  * The PCAP handle gets closed upon invocation of close() method. After that it
  * does not get reopened by start().
  *
+ * By default every received packet is deep copied before being passed to the
+ * listener. After setPacketPoolSize() the port copies received packets into
+ * recycled buffers instead, which the clients hand back with
+ * <code>IngressPacket.release()</code>.
+ *
+ * Received packets are pumped by one thread, and the packets to send are
+ * passed to libpcap by another thread as soon as they are queued. send()
+ * copies the packet into a recycled egress buffer, so the caller may change
+ * or reuse its packet as soon as send() returns. Both
+ * threads feed a <code>LatencyCounter</code> measured with System.nanoTime():
+ * libpcap to listener for the received packets, send() to libpcap for the
+ * sent ones.
+ *
+ * By default the pump thread reads one packet per call to libpcap. After
+ * setCaptureBatchSize() it reads every packet libpcap has buffered, up to the
+ * batch size, in one call and passes them to the listener together.
+ *
  * @author Alexandre Bezroutchko
  * @author Gremwell bvba
  */
 public class PcapPort extends Port {
 
     private Thread pumpThread = null;
+    private Thread egressThread = null;
     private Pcap pcap;
-    private boolean please_stop = false;
-    private final Object pcapLock = new Object();
+    private volatile boolean please_stop = false;
+    // receiving and sending use separate locks, so they do not wait for each other
+    private final Object receiveLock = new Object();
+    private final Object sendLock = new Object();
     private final PcapPacket pcapPacket;
-    private BlockingQueue<JBuffer> egressPackets = new LinkedBlockingQueue<JBuffer>();
+    private BlockingQueue<EgressPacket> egressPackets = new LinkedBlockingQueue<EgressPacket>();
+    // egress packets already sent, reused by send()
+    private final BlockingQueue<EgressPacket> freeEgressPackets = new ArrayBlockingQueue<EgressPacket>(egressPoolSize);
+    private final LatencyCounter ingressLatency = new LatencyCounter("ingress");
+    private final LatencyCounter egressLatency = new LatencyCounter("egress");
+    // number of failed calls to libpcap by the pump
+    private volatile long captureErrors = 0;
+    private PacketPool packetPool = null;
+    // packets read per call to libpcap, 0 to read them one at a time
+    private int captureBatchSize = 0;
     
     private PcapBpfProgram packet_filter_program;
     
@@ -43,10 +75,17 @@ public class PcapPort extends Port {
     
     private final static int snaplen = 64 * 1024;
     private final static int flags = Pcap.MODE_PROMISCUOUS;
-    private static int timeoutMs = 1;
+    private final int timeoutMs;
     private final static int bufsizeBytes = 16 * 1024 * 1024;
+    // egress buffers hold an Ethernet frame with a VLAN tag, larger packets get their own copy
+    private final static int egressBufferSize = 1536;
+    private final static int egressPoolSize = 64;
+    // wait of the pump after a capture error, doubled after each
+    // consecutive error
+    private final static long minErrorWaitMs = 1;
+    private final static long maxErrorWaitMs = 1000;
 
-    private static Pcap openPcap(String ifaceName) throws PcapException {
+    private static Pcap openPcap(String ifaceName, int timeoutMs) throws PcapException {
         Pcap pcap;
         StringBuilder errbuf = new StringBuilder();
 
@@ -98,18 +137,21 @@ public class PcapPort extends Port {
      * @throws PcapException
      */
     public PcapPort(String name) throws PcapException {
-        super(name);
-
-        pcap = openPcap(name);
-        pcapPacket = new PcapPacket(JMemory.Type.POINTER);
+        this(name, 1);
     }
     
+    /**
+     * @param name Name of the interface to open
+     * @param timeout Poll timeout in milliseconds, the longest time libpcap
+     * waits for more packets before passing the buffered ones
+     * @throws PcapException
+     */
     public PcapPort(String name, int timeout) throws PcapException {
         super(name);
         
         timeoutMs = timeout;
 
-        pcap = openPcap(name);
+        pcap = openPcap(name, timeoutMs);
         pcapPacket = new PcapPacket(JMemory.Type.POINTER);
     }
 
@@ -135,14 +177,76 @@ public class PcapPort extends Port {
 		}
     }
     
+    /**
+     * Enable the pooled receive mode with the given number of recycled packet
+     * buffers, or disable it with 0. Has to be invoked before start().
+     *
+     * @param poolSize Number of packet buffers, 0 to deep copy every packet
+     */
+    public synchronized void setPacketPoolSize(int poolSize) {
+        if (pumpThread != null) {
+            throw new IllegalStateException("the packet pool cannot be changed while the port is started");
+        }
+
+        packetPool = (poolSize > 0) ? new PacketPool(this, poolSize) : null;
+    }
+
+    /**
+     * Read up to batchSize packets per call to libpcap, or one packet at a
+     * time with 0. Has to be invoked before start().
+     *
+     * @param batchSize Largest number of packets read at once
+     */
+    public synchronized void setCaptureBatchSize(int batchSize) {
+        if (pumpThread != null) {
+            throw new IllegalStateException("the capture batch size cannot be changed while the port is started");
+        }
+
+        captureBatchSize = batchSize;
+    }
+
+    /**
+     * Queue a copy of the packet for the egress thread.
+     *
+     * @param packet
+     */
     @Override
     public void send(JBuffer packet) {
-        egressPackets.add(packet);
+        EgressPacket egressPacket = freeEgressPackets.poll();
+        if (egressPacket == null) {
+            egressPacket = new EgressPacket();
+        }
+
+        egressPacket.copy(packet);
+        egressPackets.add(egressPacket);
+    }
+
+    /**
+     * Send the packet from the calling thread, without going through the
+     * egress queue. Returns once libpcap has taken the packet.
+     *
+     * @param packet
+     * @throws PcapException
+     */
+    public void sendNow(JBuffer packet) throws PcapException {
+        long startNanos = System.nanoTime();
+
+        synchronized (sendLock) {
+            if (pcap == null) {
+                throw new PcapException("the port is closed");
+            }
+            if (pcap.sendPacket(packet) != Pcap.OK) {
+                throw new PcapException("failed to send packet: " + pcap.getErr());
+            }
+            sent++;
+        }
+
+        egressLatency.record(startNanos);
     }
 
     /**
-     * Start packet pumping thread. The thread will run until stop() or
-     * close().
+     * Start packet pumping and egress threads. The threads will run until
+     * stop() or close().
      *
      */
     public synchronized void start() {
@@ -150,11 +254,13 @@ public class PcapPort extends Port {
         	please_stop = false;
             pumpThread = new Thread(new PcapPortPump(this));
             pumpThread.start();
+            egressThread = new Thread(new PcapPortEgress());
+            egressThread.start();
         }
     }
 
     /**
-     * Stop packet pumping thread. Invoked by close().
+     * Stop packet pumping and egress threads. Invoked by close().
      *
      */
     public synchronized void stop() {
@@ -163,23 +269,27 @@ public class PcapPort extends Port {
         	please_stop = true;
             pumpThread.interrupt();
             pumpThread = null;
+            egressThread.interrupt();
+            egressThread = null;
         }
     }
 
     public void close() {
         stop();
 
-        synchronized (pcapLock) {
-            if (pcap != null) {
-            	
-            	if(packet_filter_program != null)
-            	{
-            		Pcap.freecode(packet_filter_program);
-            		packet_filter_program =null;
-            	}
-            	
-                pcap.close();
-                pcap = null;
+        synchronized (receiveLock) {
+            synchronized (sendLock) {
+                if (pcap != null) {
+                	
+                	if(packet_filter_program != null)
+                	{
+                		Pcap.freecode(packet_filter_program);
+                		packet_filter_program =null;
+                	}
+                	
+                    pcap.close();
+                    pcap = null;
+                }
             }
         }
     }
@@ -201,47 +311,247 @@ public class PcapPort extends Port {
                 + ", egQueue=" + egressPackets.size()
                 + ", pcapDrop=" + ps.getDrop()
                 + ", pcapIfDrop=" + ps.getIfDrop()
-                + ", pcapRecv=" + ps.getRecv();
+                + ", pcapRecv=" + ps.getRecv()
+                + ", captureErrors=" + captureErrors
+                + ", " + ingressLatency.getStat()
+                + ", " + egressLatency.getStat()
+                + ((packetPool != null) ? ", " + packetPool.getStat() : "");
     }
 
-    private class PcapPortPump implements Runnable {
+    /**
+     * @return The number of packets accepted by the filter, as reported by
+     * libpcap, or 0 if the port is closed
+     */
+    public long getPcapReceived() {
+        if (pcap == null) {
+            return 0;
+        }
+
+        PcapStat ps = new PcapStat();
+        pcap.stats(ps);
+        return ps.getRecv();
+    }
+
+    /**
+     * @return The number of packets dropped by the kernel because the capture
+     * buffer was full, as reported by libpcap, or 0 if the port is closed
+     */
+    public long getPcapDropped() {
+        if (pcap == null) {
+            return 0;
+        }
+
+        PcapStat ps = new PcapStat();
+        pcap.stats(ps);
+        return ps.getDrop();
+    }
+
+    /**
+     * @return The latency from libpcap to the listener of the received packets
+     */
+    public LatencyCounter getIngressLatency() {
+        return ingressLatency;
+    }
+
+    /**
+     * @return The latency from send() to libpcap of the sent packets
+     */
+    public LatencyCounter getEgressLatency() {
+        return egressLatency;
+    }
+
+    /**
+     * Copy the packet held in pcapPacket, already scanned, into a recycled
+     * buffer or a new deep copy.
+     *
+     * @param capturedNanos System.nanoTime() when libpcap returned the packet
+     */
+    private IngressPacket copyPacket(long capturedNanos) {
+        IngressPacket copiedPacket = (packetPool != null) ? packetPool.acquire() : null;
+
+        if (copiedPacket != null) {
+            // copy the data and the scanned state into a recycled buffer
+            pcapPacket.transferStateAndDataTo((PcapPacket) copiedPacket.packet);
+        } else {
+            PcapPacket pcapPacketCopy = new PcapPacket(pcapPacket); // deep copy
+            pcapPacketCopy.scan(JProtocol.ETHERNET_ID); // parse the headers
+
+            copiedPacket = new IngressPacket(this, pcapPacketCopy);
+        }
+
+        copiedPacket.capturedNanos = capturedNanos;
+        return copiedPacket;
+    }
+
+    private class PcapPortPump implements Runnable, JBufferHandler<IngressPacket[]> {
+
+        // packets copied by the current call to dispatch()
+        private int batchCount = 0;
+        // wait before the next call to libpcap after an error, 0 after a
+        // success
+        private long errorWaitMs = 0;
 
         public PcapPortPump(PcapPort port) {
         }
 
         public void run() {
+            final IngressPacket[] batch = (captureBatchSize > 0) ? new IngressPacket[captureBatchSize] : null;
+
             while ( !(Thread.interrupted() && please_stop)) 
             {          	
-                // check if jnetpcap has a packet for us
-                int res;
-                synchronized (pcapLock) {
-                    if (pcap == null) {
+                if (batch == null) {
+                    // check if jnetpcap has a packet for us
+                    int res;
+                    synchronized (receiveLock) {
+                        if (pcap == null) {
+                            return;
+                        }
+                        res = pcap.nextEx(pcapPacket);
+                    }
+                    if (res == Pcap.NEXT_EX_OK) {
+                        received++;
+                        errorWaitMs = 0;
+
+                        handOff(copyPacket(System.nanoTime()));
+                    } else if (res == Pcap.NEXT_EX_EOF) {
+                        // no more packets will come
+                        System.err.println(name + ": capture ended");
+                        return;
+                    } else if (res != Pcap.NEXT_EX_TIMEDOUT) {
+                        if (!waitAfterError()) {
+                            return;
+                        }
+                    }
+                } else {
+                    // take everything jnetpcap has buffered for us, up to the batch size
+                    batchCount = 0;
+                    int res;
+                    synchronized (receiveLock) {
+                        if (pcap == null) {
+                            return;
+                        }
+                        res = pcap.dispatch(batch.length, this, batch);
+                    }
+
+                    // the listener gets the batch once the pcap handle is released
+                    for (int i = 0; i < batchCount; i++) {
+                        handOff(batch[i]);
+                        batch[i] = null;
+                    }
+
+                    if (res == Pcap.ERROR_BREAK) {
+                        // breakloop() was called, the capture is over
+                        System.err.println(name + ": capture ended");
                         return;
+                    } else if (res < 0) {
+                        if (!waitAfterError()) {
+                            return;
+                        }
+                    } else {
+                        errorWaitMs = 0;
                     }
-                    res = pcap.nextEx(pcapPacket);
                 }
-                if (res == Pcap.NEXT_EX_OK) {
-                    received++;
+            }
+        }
 
-                    PcapPacket pcapPacketCopy = new PcapPacket(pcapPacket); // deep copy
-                    pcapPacketCopy.scan(JProtocol.ETHERNET_ID); // parse the headers
+        /**
+         * Report a failed call to libpcap and wait before the next one, so a
+         * capture that keeps failing, e.g. on an interface gone down, does
+         * not take a core. Only the first error of a series is printed.
+         *
+         * @return false if the port was stopped while waiting
+         */
+        private boolean waitAfterError() {
+            captureErrors++;
 
-                    ingress(pcapPacketCopy);
+            if (errorWaitMs == 0) {
+                String err;
+                synchronized (receiveLock) {
+                    err = (pcap != null) ? pcap.getErr() : "the port is closed";
                 }
+                System.err.println(name + ": capture failed: " + err);
+                errorWaitMs = minErrorWaitMs;
+            } else {
+                errorWaitMs = Math.min(2 * errorWaitMs, maxErrorWaitMs);
+            }
 
-                // flush the egress queue
-                while (!egressPackets.isEmpty()) {
-                    JBuffer packet = egressPackets.poll();
+            try {
+                Thread.sleep(errorWaitMs);
+            } catch (InterruptedException e) {
+                // stop() interrupts the pump, please_stop tells whether to go on
+            }
 
-                    synchronized (pcapLock) {
-                        if (pcap == null) {
-                            return;
-                        }
-                        pcap.sendPacket(packet);
-                    }
+            return !please_stop;
+        }
+
+        /**
+         * Pass a packet to the listener, recording the time since libpcap
+         * returned it. The packet may be released as soon as it is passed.
+         */
+        private void handOff(IngressPacket packet) {
+            ingressLatency.record(packet.capturedNanos);
+            ingress(packet);
+        }
+
+        /**
+         * Invoked by dispatch() for every buffered packet. The header and
+         * the data only live until the callback returns.
+         */
+        public void nextPacket(PcapHeader header, JBuffer buffer, IngressPacket[] batch) {
+            received++;
+
+            long capturedNanos = System.nanoTime();
+
+            pcapPacket.peerAndScan(JProtocol.ETHERNET_ID, header, buffer);
+            batch[batchCount++] = copyPacket(capturedNanos);
+        }
+    }
+
+    /**
+     * A copy of a packet waiting in the egress queue, with the time it was
+     * queued.
+     */
+    private static class EgressPacket {
+
+        private final JBuffer buffer = new JBuffer(egressBufferSize);
+        // peered with the copied bytes
+        final JBuffer packet = new JBuffer(JMemory.Type.POINTER);
+        long queuedNanos;
+
+        void copy(JBuffer source) {
+            int size = source.size();
+            JBuffer memory = (size <= egressBufferSize) ? buffer : new JBuffer(size);
+
+            source.transferTo(memory, 0, size, 0);
+            packet.peer(memory, 0, size);
+            queuedNanos = System.nanoTime();
+        }
+    }
+
+    private class PcapPortEgress implements Runnable {
 
-                    sent++;
+        public void run() {
+            while (!please_stop) {
+                // wait for a packet to send
+                EgressPacket egressPacket;
+                try {
+                    egressPacket = egressPackets.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+
+                synchronized (sendLock) {
+                    if (pcap == null) {
+                        return;
+                    }
+                    pcap.sendPacket(egressPacket.packet);
                 }
+
+                sent++;
+                egressLatency.record(egressPacket.queuedNanos);
+
+                // the buffer is reused once libpcap is done with it
+                freeEgressPackets.offer(egressPacket);
             }
         }
     }
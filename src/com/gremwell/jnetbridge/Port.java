@@ -71,6 +71,19 @@ public abstract class Port {
         }
     }
 
+    /**
+     * This method is invoked by subclasses for packets taken from a
+     * <code>PacketPool</code>, asynchronously.
+     *
+     */
+    void ingress(IngressPacket packet) {
+        if (listener != null) {
+            listener.ingress(packet);
+        } else {
+            packet.release();
+        }
+    }
+
     /**
      * Invoked by the clients. The subclasses of <code>Port</code> have
      * to send the packet immediately or enqueue it.
@@ -1,6 +1,7 @@
 package com.gremwell.jnetbridge;
 
 import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.packet.PcapPacket;
 
 /**
  * Subclasses of this class are fit to receive ingress packets from <code>Port</code>s.
@@ -12,4 +13,22 @@ import org.jnetpcap.packet.JPacket;
 public abstract class PortListener {
 
     abstract void ingress(Port port, JPacket packet);
+
+    /**
+     * Invoked by the ports for packets that may be taken from a
+     * <code>PacketPool</code>. Listeners that do not release the packets
+     * themselves get a private copy of pooled packets, and the pooled buffer
+     * goes back to the port right away.
+     *
+     * @param packet
+     */
+    void ingress(IngressPacket packet) {
+        if (!packet.isPooled()) {
+            ingress(packet.port, packet.packet);
+            return;
+        }
+
+        ingress(packet.port, new PcapPacket(packet.packet));
+        packet.release();
+    }
 }
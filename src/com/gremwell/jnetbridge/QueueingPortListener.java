@@ -9,32 +9,199 @@ import org.jnetpcap.packet.JPacket;
  * into a queue. Its clients can take the packets one by calling receive()
  * method.
  *
+ * By default the queue is unbounded. A listener created with a capacity
+ * queues the packets in a preallocated <code>PacketRing</code> instead, and
+ * applies its <code>OverflowPolicy</code> when the ring is full. Such a
+ * listener has to be registered with a single port and read by a single
+ * client thread.
+ *
+ * A listener that is not registered with a port can also queue the packets
+ * a client thread hands over to another thread, with forward().
+ *
  * @author Alexandre Bezroutchko
  * @author Gremwell bvba
  */
 public class QueueingPortListener extends PortListener {
 
-    private BlockingQueue<IngressPacket> ingressPackets = new LinkedBlockingQueue<IngressPacket>();
+    /**
+     * What a bounded listener does with an ingress packet when its ring is
+     * full.
+     */
+    public enum OverflowPolicy {
+
+        // the pump thread waits until the client takes a packet, the
+        // packets then get dropped by the kernel instead
+        BLOCK,
+        // the oldest queued packet is dropped
+        DROP_OLDEST,
+        // retransmissions are dropped once the ring is 3/4 full, to keep
+        // room for the other packets, then the oldest queued packet is dropped
+        DROP_RETRANSMISSIONS
+    }
+
+    /**
+     * Tells the listener which ingress packets only repeat information
+     * already sent, for the DROP_RETRANSMISSIONS policy. Invoked from the
+     * pump thread of the port.
+     */
+    public interface RetransmissionClassifier {
+
+        boolean isRetransmission(JPacket packet);
+    }
+
+    private BlockingQueue<IngressPacket> ingressPackets = null;
+    private PacketRing ring = null;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private RetransmissionClassifier classifier = null;
+    // counters, updated by the pump thread only
+    private volatile int highWaterMark = 0;
+    private volatile long droppedOldest = 0;
+    private volatile long droppedRetransmissions = 0;
+    private volatile long droppedInterrupted = 0;
+
+    /**
+     * Creates a listener with an unbounded queue.
+     */
+    public QueueingPortListener() {
+        ingressPackets = new LinkedBlockingQueue<IngressPacket>();
+    }
+
+    /**
+     * Creates a listener with a bounded ring.
+     *
+     * @param capacity Number of queued packets, rounded up to a power of 2
+     * @param overflowPolicy What to do when the ring is full
+     */
+    public QueueingPortListener(int capacity, OverflowPolicy overflowPolicy) {
+        ring = new PacketRing(capacity);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Set the classifier used by the DROP_RETRANSMISSIONS policy. Without a
+     * classifier, no packet is considered a retransmission.
+     *
+     * @param classifier
+     */
+    public void setClassifier(RetransmissionClassifier classifier) {
+        this.classifier = classifier;
+    }
 
     /**
      * This method is invoked by the ports, asynchronously.
-     * 
+     *
      * @param port
      * @param packet
      */
     @Override
     void ingress(Port port, JPacket packet) {
-        ingressPackets.add(new IngressPacket(port, packet));
+        ingress(new IngressPacket(port, packet));
+    }
+
+    /**
+     * This method is invoked by the ports for pooled packets, asynchronously.
+     * The packet is queued as is, the client releases it after receive().
+     *
+     * @param packet
+     */
+    @Override
+    void ingress(IngressPacket packet) {
+        if (ring == null) {
+            ingressPackets.add(packet);
+            return;
+        }
+
+        int queued = ring.size();
+
+        if ((overflowPolicy == OverflowPolicy.DROP_RETRANSMISSIONS)
+                && (queued >= ring.capacity() * 3 / 4)
+                && (classifier != null) && classifier.isRetransmission(packet.packet)) {
+            droppedRetransmissions++;
+            packet.release();
+            return;
+        }
+
+        if (queued == ring.capacity()) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                try {
+                    ring.awaitSpace();
+                } catch (InterruptedException e) {
+                    // the port is being stopped, let the pump thread see it
+                    Thread.currentThread().interrupt();
+                    droppedInterrupted++;
+                    packet.release();
+                    return;
+                }
+            } else {
+                IngressPacket oldest = ring.dropOldest();
+                if (oldest != null) {
+                    droppedOldest++;
+                    oldest.release();
+                }
+            }
+        }
+
+        ring.put(packet);
+
+        queued = ring.size();
+        if (queued > highWaterMark) {
+            highWaterMark = queued;
+        }
+    }
+
+    /**
+     * This method is invoked by a client thread to pass a packet it received
+     * to the client thread reading this listener. The packet is queued or
+     * dropped like the packets of a port. A bounded listener must be fed by a
+     * single thread, and must not be registered with a port.
+     *
+     * @param packet
+     */
+    public void forward(IngressPacket packet) {
+        ingress(packet);
     }
 
     /**
      * This method is invoked by hub clients, to get an ingress packet.
-     * Will block until a packet is available.
+     * Will block until a packet is available. The client has to call
+     * release() on the packet once it is done with it.
      *
      * @return An ingress packet
      * @throws InterruptedException
      */
     public IngressPacket receive() throws InterruptedException {
-        return ingressPackets.take();
+        return (ring == null) ? ingressPackets.take() : ring.take();
+    }
+
+    /**
+     * This method is invoked by hub clients, to get an ingress packet
+     * without waiting.
+     *
+     * @return An ingress packet, or null if none is queued
+     */
+    public IngressPacket poll() {
+        return (ring == null) ? ingressPackets.poll() : ring.poll();
+    }
+
+    /**
+     * @return The number of packets dropped for any reason
+     */
+    public long getDropped() {
+        return droppedOldest + droppedRetransmissions + droppedInterrupted;
+    }
+
+    /**
+     * @return A string containing the queue occupancy and drop counters.
+     */
+    public String getStat() {
+        if (ring == null) {
+            return "queue=" + ingressPackets.size();
+        }
+
+        return "queue=" + ring.size() + "/" + ring.capacity()
+                + ", queueHighWater=" + highWaterMark
+                + ", dropOldest=" + droppedOldest
+                + ", dropRetransmission=" + droppedRetransmissions
+                + ", dropInterrupted=" + droppedInterrupted;
     }
 }
@@ -30,6 +30,7 @@ package jgoose;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -38,6 +39,9 @@ import jgoose.IEC61850_GOOSE_ReceiveTask.WatchdogTask_State;
 
 import org.jdom2.JDOMException;
 import org.jnetpcap.packet.JMemoryPacket;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.protocol.lan.Ethernet;
+import org.jnetpcap.protocol.lan.IEEE802dot1q;
 
 import com.gremwell.jnetbridge.*;
 
@@ -47,6 +51,13 @@ public class IEC61850_GOOSE_API
 	// The default MaxTime used for transmit thread when not specified in ICD file
 	private int default_maxtime = 2000;
 	
+	// Number of recycled packet buffers used by the port to pass received packets
+	private int receive_pool_size = 256;
+	
+	// Bounded queue between the port and the main receive thread
+	private int receive_queue_capacity = 256;
+	private QueueingPortListener.OverflowPolicy receive_queue_policy = QueueingPortListener.OverflowPolicy.DROP_RETRANSMISSIONS;
+	
 	// Represents the XML ICD file
 	IEC61850_GOOSE_ICD_file ICD_Config_file;
 
@@ -63,10 +74,29 @@ public class IEC61850_GOOSE_API
 	// Threads
 	private Thread mainReceiveThread = null;
 	
+	// Receive threads the received frames are spread over, one stream always goes to the same thread
+	private int receive_shards = 1;
+	private IEC61850_GOOSE_ShardKeyType receive_shard_key = IEC61850_GOOSE_ShardKeyType.appID;
+	private GSEControlBlockReceiveWorker[] receiveWorkers = null;
+	private Thread[] receiveWorkerThreads = null;
+	
+	// Set when a DEFAULT receive handler is registered
+	private boolean containsDefault = false;
+	
+	// A single thread supervises the watchdogs of all the receive tasks, with a 1 ms resolution
+	private final IEC61850_GOOSE_TimerWheel watchdogWheel = new IEC61850_GOOSE_TimerWheel(1024, 1);
+	
+	// Another one runs the state machines of all the transmit tasks, so slow send event
+	// handlers do not delay the receive watchdogs
+	private final IEC61850_GOOSE_TimerWheel transmitWheel = new IEC61850_GOOSE_TimerWheel(1024, 1);
+	
 	// Object map to hold the event handlers for processing frames
 	// The key is the GSEControl Block appID name 
 	Map<String, IEC61850_GOOSE_ReceiveTask> receiveFrameTaskMap;
 	
+	// Same receive tasks, looked up from the APPID and goID bytes of the received frames
+	IEC61850_GOOSE_StreamTable receiveStreamTable;
+	
 	// Object map to hold the transmit tasks for transmitting frames
 	// The key is the GSEControl Block appID name 
 	Map<String, IEC61850_GOOSE_TransmitTask> transmitFrameTaskMap;
@@ -112,7 +142,7 @@ public class IEC61850_GOOSE_API
 				e.printStackTrace();
 			}
 			
-			api_port.send(transmit_task.goose_memoryPacket);
+			sendPacket((IEC61850_GOOSE_TransmitTask) transmit_task);
 		}
 	}
 	
@@ -132,10 +162,28 @@ public class IEC61850_GOOSE_API
 				e.printStackTrace();
 			}
 
-			api_port.send(transmit_task.goose_memoryPacket);
+			sendPacket((IEC61850_GOOSE_TransmitTask) transmit_task);
 		}
 	}
 	
+	// Passes the packet of a transmit task to the port. Tasks in direct mode send it from the current thread
+	private void sendPacket(IEC61850_GOOSE_TransmitTask transmit_task)
+	{
+		if (transmit_task.directSend)
+		{
+			try 
+			{
+				api_port.sendNow(transmit_task.template.packet);
+			} 
+			catch (PcapException e) 
+			{
+				e.printStackTrace();
+			}
+		}
+		else
+			api_port.send(transmit_task.template.packet);
+	}
+	
 	// We define the event handler called when a received GOOSE message has expired
 	class ReceiveTask_TimerExpired_EventHandler implements IEC61850_GOOSE_TaskEventHandler 
 	{
@@ -150,6 +198,17 @@ public class IEC61850_GOOSE_API
 		}
 	}
 	
+	// We define the classifier used to drop retransmissions first when the receive queue is full
+	// A GOOSE message with a sqNum of 0 is the first transmission of a new state
+	class Receive_Retransmission_Classifier implements QueueingPortListener.RetransmissionClassifier
+	{
+		@Override
+		public boolean isRetransmission(JPacket packet)
+		{
+			return IEC61850_GOOSE_Header.peekSqNum(packet) > 0;
+		}
+	}
+	
 	/**
 	 * 
 	 * This class is used to create the Threads that receives GSEControlBlock
@@ -161,6 +220,9 @@ public class IEC61850_GOOSE_API
 	
 	public class GSEControlBlockReceiver implements Runnable 
 	{
+		// Headers reused to decode the packets received by this thread
+		private final GSEControlBlockReceiveHeaders receiveHeaders = new GSEControlBlockReceiveHeaders();
+		
 
 		@Override
 		public void run ()
@@ -172,12 +234,6 @@ public class IEC61850_GOOSE_API
 	        @SuppressWarnings("unused")
 	        IEC61850_GOOSE_Header dummy_goose_header = new IEC61850_GOOSE_Header();
 			
-			// First, we check if a default handler is defined
-			boolean containsDefault = false;
-			
-			if(receiveFrameTaskMap.containsKey("DEFAULT"))
-				containsDefault=true;
-			
 			while (running) 
 			{
 	            // wait for an incoming packet
@@ -186,108 +242,309 @@ public class IEC61850_GOOSE_API
 	            	// Receive method is of blocking type
 	            	incomingPacket = portListener.receive();
 	            	
-	            	// The Pcap port already decoded the ETHERNET header
-	            	// We need to decode other headers
-	            	//incomingPacket.packet.scan(JProtocol.ETHERNET_ID);
-	            	//incomingPacket.packet.scan(JProtocol.)
-					
-					// We have to bind the goose_header to the JMemoryPacket
-		            IEC61850_GOOSE_Header packet_goose_header = incomingPacket.packet.getHeader( new IEC61850_GOOSE_Header());
-		            
-		            if (packet_goose_header == null)
-		            {
-		            	// This is not a GOOSE packet, we do nothing
-		            }
-		            else if (packet_goose_header.isValidHeader() == false)
-	            		System.err.printf("#%d: IEEE GOOSE Valid = %b headerError = %d \n", 
-	            				incomingPacket.packet.getFrameNumber(), packet_goose_header.isValidHeader(), packet_goose_header.headerError);
-	            	
-					// The Goose Header is Valid
-					else
+	            	// With a single receive thread, the packet is processed right away
+	            	if (receiveWorkers == null)
 	            	{
-						// We try to identify if this packet is part of a registered stream
-						if(receiveFrameTaskMap.containsKey(packet_goose_header.goID()))
+	            		try
 	            		{
-	            			// We check if the IEC61850_GOOSE_ReceiveTask is enabled
-	            			IEC61850_GOOSE_ReceiveTask current_task = receiveFrameTaskMap.get(packet_goose_header.goID());
-	            			
-	            			// We save the packet for future use
-							current_task.goose_memoryPacket = new JMemoryPacket(incomingPacket.packet);
-							current_task.goose_header = packet_goose_header;
-	            			
-	            			if(current_task.current_state != IEC61850_GOOSE_ReceiveTask.WatchdogTask_State.stopped)
-	            			{
-	            				// The Frame is recognised and the corresponding receive task is enabled
-	            				
-	            				// 1. we refresh the watch dog
-	            				current_task.refresh();
-	            				
-	            				// 2. We check if the state number has changed
-	            				if (packet_goose_header.stNum() != current_task.goose_frame.stNum)
-	            				{
-	            					// The state number has changed
-	            					// 2.1. We decode the packet
-	            					current_task.goose_frame.updateFrame_From_Packet(incomingPacket.packet);
-	            					
-	            					// 2.2. We update packet validity if necessary
-	            					if(current_task.goose_frame.frameValidity != IEC61850_GOOSE_FrameValidityType.good)
-	            					{
-	            						current_task.goose_frame.frameValidity = IEC61850_GOOSE_FrameValidityType.good;
-	            					}
-				
-	            					// 2.3. We call the user defined event handler
-	            					current_task.goose_frame.frameEventHandler.eventHandler(current_task.goose_frame);	
-	            				}
-	            				// 3. If the state number did not change
-	            				else
-	            				{
-		            				// 3.1. We update the packet validity if necessary
-	            					if(current_task.goose_frame.frameValidity != IEC61850_GOOSE_FrameValidityType.good)
-	            					{
-	            						current_task.goose_frame.frameValidity = IEC61850_GOOSE_FrameValidityType.good;
-	            						
-	            						// 3.1.1 If we updated the packet validity, we call the user defined event handler
-	            						current_task.goose_frame.frameEventHandler.eventHandler(current_task.goose_frame);
-	            					}
-	            				}
-	            			}	
+	            			processPacket(incomingPacket, receiveHeaders);
 	            		}
-	            		else if (containsDefault)
+	            		finally
 	            		{
-	            			// There is a default handler
-	            			IEC61850_GOOSE_ReceiveTask current_task = receiveFrameTaskMap.get("DEFAULT");
-	            			
-	            			// 1. We decode the packet
-        					try {
-								current_task.goose_frame.updateFrame_From_UnknownPacket(incomingPacket.packet);
-							} catch (IEC61850_GOOSE_Exception e) {
-								e.printStackTrace();
-							}
-        					
-        					// 2. We call the user defined DEFAULT event handler
-        					current_task.goose_frame.frameEventHandler.eventHandler(current_task.goose_frame);
+	            			// The packet buffer is recycled by the port once we are done with it
+	            			incomingPacket.release();
 	            		}
-	            		else
-	        			{
-	        				// The default frame is not defined. Nothing to do.
-	        				System.err.printf("Unknown Frame with GoID %s received. Nothing to do with it. This is strange ?!?", packet_goose_header.goID());
-	        			}
-					}
+	            	}
+	            	else
+	            		dispatchPacket(incomingPacket);
 				} 
 	            catch (InterruptedException e) 
 	            {
 					// We received and interrupted exception, it time to stop
 	            	running = false;
 				} 
-	            /*catch (IEC61850_GOOSE_Exception e) 
+			}
+		}
+		
+		/**
+		 * Passes a received packet to the receive thread in charge of its stream.
+		 * Packets that are not GOOSE packets are dropped here.
+		 */
+		private void dispatchPacket(IngressPacket incomingPacket)
+		{
+			int appID = IEC61850_GOOSE_Header.peekAppID(incomingPacket.packet);
+			
+			if (appID == -1)
+			{
+				// This is not a GOOSE packet, we do nothing
+				incomingPacket.release();
+				return;
+			}
+			
+			int shard_key;
+			
+			if (receive_shard_key == IEC61850_GOOSE_ShardKeyType.destinationMac)
+			{
+				// GOOSE multicast addresses only differ in their last bytes
+				shard_key = (incomingPacket.packet.getUByte(2) << 24) | (incomingPacket.packet.getUByte(3) << 16)
+						| (incomingPacket.packet.getUByte(4) << 8) | incomingPacket.packet.getUByte(5);
+				shard_key &= 0x7FFFFFFF;
+			}
+			else
+				shard_key = appID;
+			
+			receiveWorkers[shard_key % receiveWorkers.length].receivedPackets.forward(incomingPacket);
+		}
+	}
+	
+	/**
+	 * 
+	 * This class is used to create the Threads that process the received GSEControlBlock
+	 * when more than one receive thread is used. Every stream is always processed by the
+	 * same worker, so the frames of a stream are handled in order. Each worker has a bounded
+	 * queue with the capacity and overflow policy of the receive queue.
+	 * 
+	 * @author  Philippe Venne
+	 * @version 0.1
+	 *
+	 */
+	
+	class GSEControlBlockReceiveWorker implements Runnable 
+	{
+		// The packets dispatched to this worker
+		final QueueingPortListener receivedPackets;
+		
+		// Headers reused to decode the packets processed by this worker
+		private final GSEControlBlockReceiveHeaders receiveHeaders = new GSEControlBlockReceiveHeaders();
+		
+		GSEControlBlockReceiveWorker()
+		{
+			receivedPackets = new QueueingPortListener(receive_queue_capacity, receive_queue_policy);
+			receivedPackets.setClassifier(new Receive_Retransmission_Classifier());
+		}
+		
+		@Override
+		public void run ()
+		{
+			boolean running = true;
+			IngressPacket incomingPacket = null;
+			
+			while (running) 
+			{
+	            try 
+	            {
+	            	incomingPacket = receivedPackets.receive();
+	            	
+	            	try
+	            	{
+	            		processPacket(incomingPacket, receiveHeaders);
+	            	}
+	            	finally
+	            	{
+	            		incomingPacket.release();
+	            	}
+				} 
+	            catch (InterruptedException e) 
 	            {
-					e.printStackTrace();
-				}*/
+					// We received and interrupted exception, it time to stop
+	            	running = false;
+				} 
 			}
+			
+			// The packets still waiting go back to the port
+			while ((incomingPacket = receivedPackets.poll()) != null)
+				incomingPacket.release();
 		}
 	}
 	
+	/**
+	 * 
+	 * This class holds the headers used by one receive thread to decode the received packets.
+	 * The headers are peered again with every packet, so receiving does not create new
+	 * native memory objects.
+	 * 
+	 * @author  Philippe Venne
+	 * @version 0.1
+	 *
+	 */
 	
+	class GSEControlBlockReceiveHeaders
+	{
+		final IEC61850_GOOSE_Header goose_header = new IEC61850_GOOSE_Header();
+		final Ethernet eth_header = new Ethernet();
+		final IEEE802dot1q dot1q_header = new IEEE802dot1q();
+	}
+	
+	/**
+	 * Decodes one received packet and calls the event handlers. The packet buffer
+	 * must not be referenced once this method returns.
+	 */
+	private void processPacket(IngressPacket incomingPacket, GSEControlBlockReceiveHeaders receiveHeaders)
+	{
+		// The Pcap port already decoded the ETHERNET header
+		
+		// Retransmissions of the last decoded state of a stream are recognised from the
+		// field positions of its previous frame, without decoding the GOOSE header
+		int goose_offset = IEC61850_GOOSE_Header.peekOffset(incomingPacket.packet);
+		
+		if (goose_offset == -1)
+		{
+			// This is not a GOOSE packet, we do nothing
+			return;
+		}
+		
+		IEC61850_GOOSE_ReceiveTask retransmission_task = receiveStreamTable.getRetransmission(incomingPacket.packet, goose_offset);
+		
+		if (retransmission_task != null)
+		{
+			if(retransmission_task.current_state != IEC61850_GOOSE_ReceiveTask.WatchdogTask_State.stopped)
+			{
+				retransmission_task.fastPathFrames++;
+				
+				// 1. we refresh the watch dog
+				retransmission_task.refresh(retransmission_task.goose_frame.timeAllowedToLive);
+				
+				// 2. The state number did not change
+				processRetransmission(retransmission_task);
+			}
+			
+			return;
+		}
+		
+		// Frames of streams nobody subscribed to are dropped from their APPID, before the header is decoded
+		if ((containsDefault == false) && (receiveStreamTable.contains(IEC61850_GOOSE_Header.peekAppID(incomingPacket.packet)) == false))
+			return;
+		
+		// We have to bind the goose_header to the JMemoryPacket
+		IEC61850_GOOSE_Header packet_goose_header = incomingPacket.packet.getHeader(receiveHeaders.goose_header);
+		
+		if (packet_goose_header == null)
+		{
+			// This is not a GOOSE packet, we do nothing
+		}
+		else if (packet_goose_header.isValidHeader() == false)
+			System.err.printf("#%d: IEEE GOOSE Valid = %b headerError = %d \n", 
+					incomingPacket.packet.getFrameNumber(), packet_goose_header.isValidHeader(), packet_goose_header.headerError);
+		
+		// The Goose Header is Valid
+		else
+		{
+			// We try to identify if this packet is part of a registered stream
+			IEC61850_GOOSE_ReceiveTask current_task = receiveStreamTable.get(packet_goose_header);
+			
+			if(current_task != null)
+			{
+				// We check if the IEC61850_GOOSE_ReceiveTask is enabled
+				
+				// We save a copy of the packet for future use if requested.
+				// The received packet buffer is recycled once processed.
+				if(current_task.packetSnapshot)
+				{
+					current_task.goose_memoryPacket = new JMemoryPacket(incomingPacket.packet);
+					current_task.goose_header = current_task.goose_memoryPacket.getHeader(new IEC61850_GOOSE_Header());
+				}
+				
+				if(current_task.current_state != IEC61850_GOOSE_ReceiveTask.WatchdogTask_State.stopped)
+				{
+					// The Frame is recognised and the corresponding receive task is enabled
+					current_task.fullDecodeFrames++;
+					
+					// 1. we refresh the watch dog
+					current_task.refresh(packet_goose_header.timeAllowedToLive());
+					
+					// 2. We check if the state number has changed
+					if (packet_goose_header.stNum() != current_task.goose_frame.stNum)
+					{
+						// The state number has changed
+						// 2.1. We decode the packet. A frame whose data cannot be decoded is dropped
+						try
+						{
+							current_task.goose_frame.updateFrame_From_Header(packet_goose_header);
+						}
+						catch (IEC61850_GOOSE_Exception e)
+						{
+							// The retransmissions of a rejected state are rejected too, we only log the first one
+							current_task.rejectedFrames++;
+							
+							if (packet_goose_header.stNum() != current_task.rejectedStNum)
+							{
+								current_task.rejectedStNum = packet_goose_header.stNum();
+								System.err.printf("#%d: %s. Frames of %s with stNum %d dropped\n", 
+										incomingPacket.packet.getFrameNumber(), e.getMessage(), current_task.goose_frame.goID, 
+										current_task.rejectedStNum);
+							}
+							
+							return;
+						}
+						
+						// 2.2. We update packet validity if necessary
+						if(current_task.goose_frame.frameValidity != IEC61850_GOOSE_FrameValidityType.good)
+						{
+							current_task.goose_frame.frameValidity = IEC61850_GOOSE_FrameValidityType.good;
+						}
+						
+						// 2.3. We call the user defined change event handler for each changed entry
+						if (current_task.goose_frame.changeEventHandler != null)
+						{
+							BitSet changedEntries = current_task.goose_frame.getChangedEntries();
+							
+							for (int index = changedEntries.nextSetBit(0); index >= 0; index = changedEntries.nextSetBit(index + 1))
+								current_task.goose_frame.changeEventHandler.onChanged(current_task.goose_frame, index);
+						}
+						
+						// 2.4. We call the user defined event handler
+						current_task.goose_frame.frameEventHandler.eventHandler(current_task.goose_frame);	
+					}
+					// 3. If the state number did not change
+					else
+						processRetransmission(current_task);
+					
+					// 4. We save the field positions for the following retransmissions
+					current_task.cacheLayout(packet_goose_header);
+				}	
+			}
+			else if (containsDefault)
+			{
+				// There is a default handler
+				current_task = receiveFrameTaskMap.get("DEFAULT");
+				
+				// The DEFAULT frame is shared by all the receive threads
+				synchronized (current_task)
+				{
+					// 1. We decode the packet
+					try {
+						current_task.goose_frame.updateFrame_From_UnknownPacket(incomingPacket.packet, 
+								receiveHeaders.eth_header, receiveHeaders.dot1q_header, packet_goose_header);
+					} catch (IEC61850_GOOSE_Exception e) {
+						e.printStackTrace();
+					}
+					
+					// 2. We call the user defined DEFAULT event handler
+					current_task.goose_frame.frameEventHandler.eventHandler(current_task.goose_frame);
+				}
+			}
+			else
+			{
+				// The default frame is not defined. Nothing to do.
+				System.err.printf("Unknown Frame with GoID %s received. Nothing to do with it. This is strange ?!?", packet_goose_header.goID());
+			}
+		}
+	}
+	
+	/**
+	 * Handles a received frame that did not change the state number of its stream
+	 */
+	private void processRetransmission(IEC61850_GOOSE_ReceiveTask current_task)
+	{
+		// We update the packet validity if necessary
+		if(current_task.goose_frame.frameValidity != IEC61850_GOOSE_FrameValidityType.good)
+		{
+			current_task.goose_frame.frameValidity = IEC61850_GOOSE_FrameValidityType.good;
+			
+			// If we updated the packet validity, we call the user defined event handler
+			current_task.goose_frame.frameEventHandler.eventHandler(current_task.goose_frame);
+		}
+	}
 	
 	/**
 	 * Constructor of the API. 1. Reads the ICD file 2. SAves Addressing information 3. Checks for a valid IED
@@ -307,8 +564,11 @@ public class IEC61850_GOOSE_API
 		api_port = param_port;
 		
 		// initialize port listener
-        portListener = new QueueingPortListener();
-		api_port.setListener(portListener);
+		setReceiveQueue(receive_queue_capacity, receive_queue_policy);
+		
+		// The receiver releases every packet once decoded, so the port can
+		// pass received packets in recycled buffers
+		api_port.setPacketPoolSize(receive_pool_size);
 		
 		/*
 		 * We verify the ICD file
@@ -336,6 +596,8 @@ public class IEC61850_GOOSE_API
 		receiveFrameTaskMap
 			= new HashMap<String, IEC61850_GOOSE_ReceiveTask> ();
 		
+		receiveStreamTable = new IEC61850_GOOSE_StreamTable();
+		
 		transmitFrameTaskMap
 			= new HashMap<String, IEC61850_GOOSE_TransmitTask> ();
 	}
@@ -370,7 +632,7 @@ public class IEC61850_GOOSE_API
 			
 			local_GOOSE_Frame = new IEC61850_GOOSE_Frame(event_handler);
 			
-			receive_task = new IEC61850_GOOSE_ReceiveTask(local_GOOSE_Frame,appID_name);
+			receive_task = new IEC61850_GOOSE_ReceiveTask(local_GOOSE_Frame,appID_name,watchdogWheel);
 			receiveFrameTaskMap.put(appID_name, receive_task);
 		}
 		else
@@ -439,7 +701,7 @@ public class IEC61850_GOOSE_API
 					// This is the user defined event handler that is called when a new frame is received
 					local_GOOSE_Frame = new IEC61850_GOOSE_Frame(event_handler,new_GSEControlBlock);
 					
-					receive_task = new IEC61850_GOOSE_ReceiveTask(local_GOOSE_Frame,appID_name);
+					receive_task = new IEC61850_GOOSE_ReceiveTask(local_GOOSE_Frame,appID_name,watchdogWheel);
 					
 					// Create instances of event handlers
 					IEC61850_GOOSE_TaskEventHandler receive_expired_handler = new ReceiveTask_TimerExpired_EventHandler();
@@ -448,6 +710,7 @@ public class IEC61850_GOOSE_API
 					receive_task.registerEventHandler(receive_expired_handler);
 					
 					receiveFrameTaskMap.put(appID_name, receive_task);
+					receiveStreamTable.put(local_GOOSE_Frame.appID, appID_name, receive_task);
 					
 					break;
 				
@@ -470,7 +733,8 @@ public class IEC61850_GOOSE_API
 					local_GOOSE_Frame.sourceMacAddress = this.macAddress;
 					
 					// The thread is called every maxtime or when triggered
-					transmit_task = new IEC61850_GOOSE_TransmitTask(local_GOOSE_Frame, new_GSEControlBlock.mintime, new_GSEControlBlock.maxtime /2);
+					transmit_task = new IEC61850_GOOSE_TransmitTask(local_GOOSE_Frame, new_GSEControlBlock.mintime, new_GSEControlBlock.maxtime /2,
+							transmitWheel);
 					
 					// Create instances of event handlers
 					IEC61850_GOOSE_TaskEventHandler send_values_handler = new TransmitTask_SendValues_EventHandler();
@@ -594,43 +858,51 @@ public class IEC61850_GOOSE_API
 		final String goose_filter_str = "ether proto 0x88B8";
 		
         /*************************************************************************** 
-         * We define a filter on the protocol and on MAC addresses
+         * We define a filter on the protocol, the APPID and the MAC addresses
+         * so that the messages of other publishers are dropped by the kernel
          **************************************************************************/
 		
 		String filter_str = new String();
 		
-		// if a default receive handler is defined, we will not filter on MAC addresses
-		// else, we only receive listed MAC addresses
-		
-		// TODO Test this
-		if(! receiveFrameTaskMap.containsKey("DEFAULT"))
+		// if a default receive handler is defined, we will not filter on APPID and MAC addresses
+		// else, we only receive listed APPID and MAC addresses
+		if(receiveFrameTaskMap.containsKey("DEFAULT"))
+		{
+			filter_str = "( " + goose_filter_str + " ) or ( vlan and " + goose_filter_str + " )";
+		}
+		else
 		{
-			boolean undefined_mac_address = false;
+			// The APPID follows the ethertype, 4 bytes further when the frame has a VLAN tag
+			String untagged_filter_str = new String();
+			String tagged_filter_str = new String();
 			
 			Iterator<IEC61850_GOOSE_ReceiveTask> receiveFrameTaskMap_IT = receiveFrameTaskMap.values().iterator();
 			
-			// Adds every MAC addresses
+			// Adds every APPID and MAC addresses
 			for(int position = 0; position < receiveFrameTaskMap.size(); position++)
 			{
 				IEC61850_GOOSE_ReceiveTask current_IEC61850_GOOSE_ReceiveTask = receiveFrameTaskMap_IT.next();
+				IEC61850_GOOSE_GSEControlBlock current_block = current_IEC61850_GOOSE_ReceiveTask.goose_frame.gseControlBlockAttributes;
 				
-				// If one of the IEC61850_GOOSE_ReceiveTask has an undefined MAS address, we cannot use MAC filters
-				if(current_IEC61850_GOOSE_ReceiveTask.goose_frame.gseControlBlockAttributes.macAddress.contentEquals("00-00-00-00-00-00") )
-					undefined_mac_address = true;
+				// If the GSEControlBlock has an undefined MAC address, we only filter on its APPID
+				String mac_filter_str = new String();
+				if(! current_block.macAddress.contentEquals("00-00-00-00-00-00") )
+					mac_filter_str = " and ether dst " + current_block.macAddress.replace('-',':');
 				
 				if(position > 0)
-					filter_str += " or ";
+				{
+					untagged_filter_str += " or ";
+					tagged_filter_str += " or ";
+				}
 				
-				filter_str += "( ";
-				filter_str += goose_filter_str;
-				filter_str += " and ether dst ";
-				filter_str += (current_IEC61850_GOOSE_ReceiveTask.goose_frame.gseControlBlockAttributes.macAddress).replace('-',':');
-				filter_str += " )";
+				untagged_filter_str += String.format("( ether[14:2] = 0x%04X%s )", current_block.AppID, mac_filter_str);
+				tagged_filter_str += String.format("( ether[18:2] = 0x%04X%s )", current_block.AppID, mac_filter_str);
 			}
 			
-			// If one of the GSEControlBlock has an undefined MAC address, we only keep the GOOSE filter
-			if (undefined_mac_address)
-				filter_str = goose_filter_str;
+			// The vlan keyword moves the offsets of everything that follows it, so the tagged frames come last
+			if (receiveFrameTaskMap.size() > 0)
+				filter_str = "( " + goose_filter_str + " and ( " + untagged_filter_str + " ) ) or "
+						+ "( vlan and " + goose_filter_str + " and ( " + tagged_filter_str + " ) )";
 		}
         
 		// We set the filter for the current port
@@ -645,6 +917,27 @@ public class IEC61850_GOOSE_API
 		}
         
 		
+		// First, we check if a default handler is defined
+		containsDefault = receiveFrameTaskMap.containsKey("DEFAULT");
+		
+		// We start the receive threads the frames are spread over
+		if((receive_shards > 1) && (receiveWorkers == null))
+		{
+			receiveWorkers = new GSEControlBlockReceiveWorker[receive_shards];
+			receiveWorkerThreads = new Thread[receive_shards];
+			
+			for(int shard = 0; shard < receive_shards; shard++)
+			{
+				receiveWorkers[shard] = new GSEControlBlockReceiveWorker();
+				receiveWorkerThreads[shard] = new Thread(receiveWorkers[shard]);
+				receiveWorkerThreads[shard].start();
+			}
+		}
+		
+		// We start the wheel supervising the receive watchdogs and the one running the transmit tasks
+		watchdogWheel.start();
+		transmitWheel.start();
+		
 		// We start the main receive thread
         if(mainReceiveThread == null)
         {
@@ -683,6 +976,19 @@ public class IEC61850_GOOSE_API
 		mainReceiveThread.interrupt();
 		mainReceiveThread.join();
 		
+		// and the receive threads the frames are spread over
+		if (receiveWorkers != null)
+		{
+			for(int shard = 0; shard < receiveWorkerThreads.length; shard++)
+			{
+				receiveWorkerThreads[shard].interrupt();
+				receiveWorkerThreads[shard].join();
+			}
+			
+			receiveWorkers = null;
+			receiveWorkerThreads = null;
+		}
+		
 		// Last we disable all receive threads
 		Iterator<IEC61850_GOOSE_ReceiveTask> frameReceiveTask_IT;
 		frameReceiveTask_IT = receiveFrameTaskMap.values().iterator();
@@ -697,6 +1003,312 @@ public class IEC61850_GOOSE_API
 				current_ReceiveTask.disable();
 			}
 		}
+		
+		// and the wheels supervising their watchdogs and running the transmit tasks
+		watchdogWheel.stop();
+		transmitWheel.stop();
+	}
+	
+	/**
+	 * This method sets the size of the queue holding the received GOOSE messages until the main
+	 * receive thread takes them, and what happens to the messages received while it is full.
+	 * With DROP_RETRANSMISSIONS, retransmissions of an unchanged state are dropped before
+	 * the first transmissions of a new state. When more than one receive thread is used, each of
+	 * them has a queue with the same capacity and policy. Must be called before startIEC61850API.
+	 * 
+	 * @param capacity	Number of received messages the queue can hold
+	 * @param policy	What to do with the messages received while the queue is full
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setReceiveQueue(int capacity, QueueingPortListener.OverflowPolicy policy) throws IEC61850_GOOSE_Exception
+	{
+		if (capacity < 1)
+			throw new IEC61850_GOOSE_Exception("The receive queue must hold at least one message");
+		
+		if (mainReceiveThread != null)
+			throw new IEC61850_GOOSE_Exception("The receive queue cannot be changed once the API is started");
+		
+		receive_queue_capacity = capacity;
+		receive_queue_policy = policy;
+		
+		portListener = new QueueingPortListener(receive_queue_capacity, receive_queue_policy);
+		portListener.setClassifier(new Receive_Retransmission_Classifier());
+		api_port.setListener(portListener);
+	}
+	
+	/**
+	 * This method returns the fraction of the GOOSE messages accepted by the packet filter that were dropped
+	 * by the kernel, because the capture buffer was full.
+	 * 
+	 * @return The drop ratio, between 0 and 1
+	 */
+	public double getKernelDropRatio()
+	{
+		long received = api_port.getPcapReceived();
+		
+		return (received <= 0) ? 0 : (double) api_port.getPcapDropped() / received;
+	}
+	
+	/**
+	 * This method returns the fraction of the GOOSE messages accepted by the packet filter that were dropped
+	 * in user space, because the receive queue was full.
+	 * 
+	 * @return The drop ratio, between 0 and 1
+	 */
+	public double getUserspaceDropRatio()
+	{
+		long received = api_port.getPcapReceived();
+		
+		long dropped = portListener.getDropped();
+		
+		GSEControlBlockReceiveWorker[] workers = receiveWorkers;
+		
+		if (workers != null)
+		{
+			for(int shard = 0; shard < workers.length; shard++)
+				dropped += workers[shard].receivedPackets.getDropped();
+		}
+		
+		return (received <= 0) ? 0 : (double) dropped / received;
+	}
+	
+	/**
+	 * This method returns the occupancy, high-water mark and drop counters of the receive queue,
+	 * and of the queue of each receive thread when more than one is used.
+	 * 
+	 * @return A string containing the counters
+	 */
+	public String getReceiveQueueStat()
+	{
+		String stat = portListener.getStat();
+		
+		GSEControlBlockReceiveWorker[] workers = receiveWorkers;
+		
+		if (workers != null)
+		{
+			for(int shard = 0; shard < workers.length; shard++)
+				stat += ", shard" + shard + ": " + workers[shard].receivedPackets.getStat();
+		}
+		
+		return stat;
+	}
+	
+	/**
+	 * This method sets the number of threads used to decode received GOOSE messages and call their
+	 * event handlers. Received frames are spread over the threads according to their APPID or their
+	 * destination MAC address. The frames of one stream are always handled by the same thread and in
+	 * order, while different streams are handled in parallel. Event handlers of different receive blocks
+	 * may therefore be called concurrently when more than one thread is used.
+	 * Must be called before startIEC61850API.
+	 * 
+	 * @param shards	Number of receive threads, 1 processes every frame on the main receive thread
+	 * @param key		Frame attribute used to choose the receive thread
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setReceiveShards(int shards, IEC61850_GOOSE_ShardKeyType key) throws IEC61850_GOOSE_Exception
+	{
+		if (shards < 1)
+			throw new IEC61850_GOOSE_Exception("At least one receive thread is required");
+		
+		if (mainReceiveThread != null)
+			throw new IEC61850_GOOSE_Exception("The receive threads cannot be changed once the API is started");
+		
+		receive_shards = shards;
+		receive_shard_key = key;
+	}
+	
+	/**
+	 * This method returns the number of frames of a receive block that were handled by the
+	 * retransmission fast path and by the full decode.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @return A string containing the counters
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public String getReceiveStat(String appID_name) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_ReceiveTask receive_task;
+		receive_task = receiveFrameTaskMap.get(appID_name);
+		
+		if(receive_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		return receive_task.getStat();
+	}
+	
+	/**
+	 * This method sets whether a transmit block sends its GOOSE messages directly from the thread that
+	 * produces them. With direct send, triggerEvent calls the event handler, encodes the message and passes
+	 * it to the network interface before returning, unless the previous message was sent less than MinTime ago.
+	 * In that case the new values are sent by the transmit thread once MinTime has elapsed.
+	 * Retransmissions are also sent without going through the port egress queue.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param enabled		true to send from the calling thread
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setDirectSend(String appID_name, boolean enabled) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_TransmitTask transmit_task;
+		transmit_task = transmitFrameTaskMap.get(appID_name);
+		
+		if(transmit_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		transmit_task.directSend = enabled;
+	}
+	
+	/**
+	 * This method sets the delays between the retransmissions that follow new values of a transmit block.
+	 * The policy receives the MinTime and the maximum retransmission delay of the block from the ICD file.
+	 * By default, the curve of IEC 61850-8-1/2011 18.1.2.5.1 is used.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param policy		The retransmission policy
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setRetransmissionPolicy(String appID_name, IEC61850_GOOSE_RetransmissionPolicy policy) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_TransmitTask transmit_task;
+		transmit_task = transmitFrameTaskMap.get(appID_name);
+		
+		if(transmit_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		// The new curve is used from the next retransmission
+		synchronized (transmit_task.stateLock)
+		{
+			transmit_task.retransmissionPolicy = policy;
+		}
+	}
+	
+	/**
+	 * This method sets whether a transmit block always encodes stNum and sqNum on 4 bytes. The length of
+	 * its frames then never changes when the counters grow, at the cost of up to 6 bytes per frame.
+	 * Receivers must accept INTEGER values with leading zero bytes, which strict BER decoders may reject.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param enabled		true to encode the counters on 4 bytes
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setFixedCounterLength(String appID_name, boolean enabled) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_TransmitTask transmit_task;
+		transmit_task = transmitFrameTaskMap.get(appID_name);
+		
+		if(transmit_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		// The counters take the new length in the next transmitted frames
+		synchronized (transmit_task.stateLock)
+		{
+			transmit_task.template.fixedCounterLength = enabled;
+		}
+	}
+	
+	/**
+	 * This method sets how long a receive block may stay silent before its watchdog expires and the
+	 * timer expired event handler is called. With maxTime, the default, the watchdog is armed with
+	 * the MaxTime of the ICD file. With timeAllowedToLive, every received frame arms the watchdog
+	 * with its own timeAllowedToLive, so a publisher that shortens it is supervised more tightly
+	 * right away.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param supervision	The supervision mode
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setSupervision(String appID_name, IEC61850_GOOSE_SupervisionType supervision) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_ReceiveTask receive_task;
+		receive_task = receiveFrameTaskMap.get(appID_name);
+		
+		if(receive_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		receive_task.supervision = supervision;
+	}
+	
+	/**
+	 * This method sets whether a private copy of the last received packet of a receive block is kept.
+	 * Received packets are passed in recycled buffers, so the copy is only made when requested.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param enabled		true to keep a copy of every received packet
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setPacketSnapshot(String appID_name, boolean enabled) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_ReceiveTask receive_task;
+		receive_task = receiveFrameTaskMap.get(appID_name);
+		
+		if (receive_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		receive_task.packetSnapshot = enabled;
+	}
+	
+	/**
+	 * This method sets whether the entries that changed are found when a receive block decodes a new
+	 * state. The bytes of each entry are compared with the previous state, and the positions of the
+	 * entries that differ are returned by getChangedEntries() of the frame. Tracking stays on while a
+	 * change event handler is registered.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param enabled		true to find the changed entries
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setChangeTracking(String appID_name, boolean enabled) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_ReceiveTask receive_task;
+		receive_task = receiveFrameTaskMap.get(appID_name);
+		
+		if (receive_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		receive_task.changeTracking = enabled;
+		receive_task.goose_frame.gooseData.setChangeTracking(enabled || (receive_task.goose_frame.changeEventHandler != null));
+	}
+	
+	/**
+	 * This method registers a handler called for each data set entry that changed when a receive
+	 * block decodes a new state, before its frame event handler. It enables change tracking, and
+	 * removing the handler disables it again unless it was enabled by setChangeTracking().
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param handler		The change event handler, null to remove it
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void registerChangeEventHandler(String appID_name, IEC61850_GOOSE_ChangeEventHandler handler) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_ReceiveTask receive_task;
+		receive_task = receiveFrameTaskMap.get(appID_name);
+		
+		if (receive_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		receive_task.goose_frame.changeEventHandler = handler;
+		receive_task.goose_frame.gooseData.setChangeTracking((handler != null) || receive_task.changeTracking);
+	}
+	
+	/**
+	 * This method sets whether the data set of a receive block is decoded lazily. Received frames
+	 * then only have their data copied, and each value is decoded the first time it is read by
+	 * getValueByKey() or the getters of the data set. This saves time when the event handler
+	 * only reads a few values of a large data set.
+	 * 
+	 * @param appID_name	appID of the <GSEControl>
+	 * @param enabled		true to decode each value when it is read
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public void setLazyDecoding(String appID_name, boolean enabled) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_ReceiveTask receive_task;
+		receive_task = receiveFrameTaskMap.get(appID_name);
+		
+		if (receive_task == null)
+			throw new IEC61850_GOOSE_Exception("appID not found");
+		
+		receive_task.goose_frame.gooseData.setLazyDecoding(enabled);
 	}
 	
 	/**
@@ -735,6 +1347,9 @@ public class IEC61850_GOOSE_API
 				// for that specific receive task
 				receive_task.goose_frame.frameEventHandler.eventHandler(receive_task.goose_frame);
 		}
+		// In direct mode, the new values are sent right away if the minimum delay allows it
+		else if (transmit_task.directSend && transmit_task.sendValuesNow())
+			return;
 		else
 			// We set the flag to signify that data is changed
 			transmit_task.dataHasBeenChanged();
@@ -0,0 +1,122 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class gives IEC61850_GOOSE_Codec access to the bytes of a jnetpcap buffer, so the BER
+ * lengths of data sets and packet templates are read and written by the codec. The buffer can be
+ * changed, so one instance is kept and reused by each user. The buffers of captured packets are
+ * in native byte order, so the multi-byte fields are swapped when the buffer is not big endian.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.nio.ByteOrder;
+
+import org.jnetpcap.nio.JBuffer;
+
+final class IEC61850_GOOSE_BufferMemory implements IEC61850_GOOSE_Codec.Memory
+{
+	private JBuffer buffer;
+
+	IEC61850_GOOSE_BufferMemory(JBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	// Points this memory to another buffer and returns it
+	IEC61850_GOOSE_BufferMemory of(JBuffer buffer)
+	{
+		this.buffer = buffer;
+
+		return this;
+	}
+
+	int size()
+	{
+		return buffer.size();
+	}
+
+	@Override
+	public int getUByte(int position)
+	{
+		return buffer.getUByte(position);
+	}
+
+	@Override
+	public void setUByte(int position, int value)
+	{
+		buffer.setUByte(position, value);
+	}
+
+	private boolean bigEndian()
+	{
+		return buffer.order() == ByteOrder.BIG_ENDIAN;
+	}
+
+	@Override
+	public int getUShort(int position)
+	{
+		int value = buffer.getUShort(position);
+
+		return bigEndian() ? value : (Integer.reverseBytes(value) >>> 16);
+	}
+
+	@Override
+	public void setUShort(int position, int value)
+	{
+		buffer.setUShort(position, bigEndian() ? value : (Integer.reverseBytes(value) >>> 16));
+	}
+
+	@Override
+	public long getUInt(int position)
+	{
+		long value = buffer.getUInt(position);
+
+		return bigEndian() ? value : (Integer.reverseBytes((int) value) & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public void setUInt(int position, long value)
+	{
+		buffer.setUInt(position, bigEndian() ? value : (Integer.reverseBytes((int) value) & 0xFFFFFFFFL));
+	}
+
+	@Override
+	public long getLong(int position)
+	{
+		long value = buffer.getLong(position);
+
+		return bigEndian() ? value : Long.reverseBytes(value);
+	}
+
+	@Override
+	public byte[] getByteArray(int position, byte[] array, int offset, int length)
+	{
+		return buffer.getByteArray(position, array, offset, length);
+	}
+
+	@Override
+	public void setByteArray(int position, byte[] array)
+	{
+		buffer.setByteArray(position, array);
+	}
+}
@@ -0,0 +1,1008 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This class decodes and encodes the GOOSE APDU, from the APPID to the allData length, on a
+ * ByteBuffer or on any memory read and written byte by byte through the Memory interface. It does
+ * not depend on jnetpcap, so frames read from a file, a socket or a test can be handled without
+ * libpcap. IEC61850_GOOSE_Header implements Memory over the packets captured and sent through
+ * jnetpcap, so their fields are read and written in place.
+ * 
+ * decode() finds the position and length of every field of the frame at the given offset. The
+ * accessors then read and write the values in place. A codec holds the layout of one frame at a
+ * time and creates no object, except the accessors returning a String.
+ * 
+ * The positions are counted from the APPID. The bytes are read one by one, so the byte order of
+ * the buffer does not matter and is left as is.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+public class IEC61850_GOOSE_Codec
+{
+	/**
+	 * 
+	 * This interface gives the codec access to the bytes of a frame, wherever they are held.
+	 * The fields of 2, 4 and 8 bytes are read and written in one call, in network byte order.
+	 * 
+	 * @author  Philippe Venne
+	 * @version 0.1
+	 *
+	 */
+	public interface Memory
+	{
+		/**
+		 * @param position	Position of the byte
+		 * @return			The byte at position, from 0 to 255
+		 */
+		int getUByte(int position);
+		
+		/**
+		 * @param position	Position of the byte
+		 * @param value		The byte to write, from 0 to 255
+		 */
+		void setUByte(int position, int value);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @return			The 2 bytes at position, big endian, from 0 to 65535
+		 */
+		int getUShort(int position);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @param value		The 2 bytes to write, big endian
+		 */
+		void setUShort(int position, int value);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @return			The 4 bytes at position, big endian, from 0 to 2^32 - 1
+		 */
+		long getUInt(int position);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @param value		The 4 bytes to write, big endian
+		 */
+		void setUInt(int position, long value);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @return			The 8 bytes at position, big endian
+		 */
+		long getLong(int position);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @param array		The array receiving the bytes
+		 * @param offset	Offset of the first byte in array
+		 * @param length	Number of bytes to copy
+		 * @return			The array
+		 */
+		byte[] getByteArray(int position, byte[] array, int offset, int length);
+		
+		/**
+		 * @param position	Position of the first byte
+		 * @param array		The bytes to write
+		 */
+		void setByteArray(int position, byte[] array);
+	}
+	
+	// Memory over a ByteBuffer, used by the ByteBuffer methods
+	private static final class BufferMemory implements Memory
+	{
+		ByteBuffer buffer = null;
+		
+		@Override
+		public int getUByte(int position)
+		{
+			return buffer.get(position) & 0xFF;
+		}
+		
+		@Override
+		public void setUByte(int position, int value)
+		{
+			buffer.put(position, (byte) value);
+		}
+		
+		// We read the multi-byte fields in one access, then fix the byte order if needed
+		private boolean bigEndian()
+		{
+			return buffer.order() == ByteOrder.BIG_ENDIAN;
+		}
+		
+		@Override
+		public int getUShort(int position)
+		{
+			short value = buffer.getShort(position);
+			
+			return (bigEndian() ? value : Short.reverseBytes(value)) & 0xFFFF;
+		}
+		
+		@Override
+		public void setUShort(int position, int value)
+		{
+			buffer.putShort(position, bigEndian() ? (short) value : Short.reverseBytes((short) value));
+		}
+		
+		@Override
+		public long getUInt(int position)
+		{
+			int value = buffer.getInt(position);
+			
+			return (bigEndian() ? value : Integer.reverseBytes(value)) & 0xFFFFFFFFL;
+		}
+		
+		@Override
+		public void setUInt(int position, long value)
+		{
+			buffer.putInt(position, bigEndian() ? (int) value : Integer.reverseBytes((int) value));
+		}
+		
+		@Override
+		public long getLong(int position)
+		{
+			long value = buffer.getLong(position);
+			
+			return bigEndian() ? value : Long.reverseBytes(value);
+		}
+		
+		@Override
+		public byte[] getByteArray(int position, byte[] array, int offset, int length)
+		{
+			for (int index = 0; index < length; index++)
+				array[offset + index] = buffer.get(position + index);
+			
+			return array;
+		}
+		
+		@Override
+		public void setByteArray(int position, byte[] array)
+		{
+			for (int index = 0; index < array.length; index++)
+				buffer.put(position + index, array[index]);
+		}
+	}
+	
+	// We define the constants for GOOSE protocol
+	static final int APPID_POS						= 0;
+	static final int APPID_LENGTH					= 2;
+	static final int LENGTH_POS						= 2;
+	static final int LENGTH_LENGTH					= 2;
+	static final int RESERVED_LENGTH				= 4;
+	static final int ADPU_LENGTH_TAG				= 0x61;
+	static final int ADPU_LENGTH_1_BYTE				= 0x81;
+	static final int ADPU_LENGTH_2_BYTE				= 0x82;
+	static final int ADPU_LENGTH_TAG_POS			= 8;
+	
+	static final int GOCB_REF_TAG 					= 0x00;
+	static final int TIME_ALLOWED_TO_LIVE_TAG		= 0x01;
+	static final int DAT_SET_GOOSE_TAG				= 0x02;
+	static final int GO_ID_TAG						= 0x03;
+	static final int UTC_TAG						= 0x04;
+	static final int UTC_LENGTH						= 8;
+	static final int ST_NUM_TAG						= 0x05;
+	static final int SQ_NUM_TAG						= 0x06;
+	static final int TEST_TAG						= 0x07;
+	static final int CONF_REV_GOOSE_TAG				= 0x08;
+	static final int NDS_COM_TAG					= 0x09;
+	static final int NUM_DAT_SET_ENTRIES_TAG		= 0x0a;
+	static final int ALL_DATA_TAG					= 0x0b;
+	
+	static final int CONTEXT_SPECIFIC_PRIMITIVE		= 0x80;
+	static final int CONTEXT_SPECIFIC_CONSTRUCTED	= 0xa0;
+	
+	// Largest GOOSE length field value, from the APPID, that fits the 1500 bytes of an Ethernet frame
+	public static final int MAX_LENGTH				= 1500;
+	
+	// Errors returned by decode(). -1 to -12 flag a missing or unexpected tag, in the order of
+	// the fields
+	public static final int ERROR_LENGTH			= -13;
+	public static final int ERROR_TRUNCATED			= -14;
+	
+	private static final long NANOS_PER_SECOND		= 1000000000L;
+	private static final long MAX_FRACTION			= 0xFFFFFFL;
+	
+	// The memory holding the frame, the position of the APPID and the GOOSE length
+	private final BufferMemory bufferMemory = new BufferMemory();
+	private Memory memory = null;
+	private int offset;
+	private int size;
+	
+	// Number of bytes of the frame that can be read from the memory
+	private int readable;
+	
+	// Bytes of the goID, read in one access by goIDEquals and goIDHash
+	private byte scratch[] = new byte[64];
+	
+	// Position of the tag and length of each variable length field
+	int apduLength_length;
+	int goCBref_length;
+	int goCBref_tag_position;
+	int timeAllowedToLive_length;
+	int timeAllowedToLive_tag_position;
+	int datSet_length;
+	int datSet_tag_position;
+	int goID_length;
+	int goID_tag_position;
+	int utc_tag_position;
+	int stNum_length;
+	int stNum_tag_position;
+	int sqNum_length;
+	int sqNum_tag_position;
+	int test_length;
+	int test_tag_position;
+	int confRevGoose_length;
+	int confRevGoose_tag_position;
+	int ndsCom_length;
+	int ndsCom_tag_position;
+	int numDatSetEntries_length;
+	int numDatSetEntries_tag_position;
+	int allData_length;
+	int allData_tag_position;
+	
+	/**
+	 * Finds the fields of a frame. The other methods then read and write the fields of this frame.
+	 * 
+	 * @param buffer	The buffer holding the frame
+	 * @param offset	Position of the APPID in the buffer
+	 * @param size		GOOSE length of the frame, from the APPID
+	 * @return			0, ERROR_LENGTH, ERROR_TRUNCATED or -1 to -12 when a tag is not the expected one
+	 */
+	public int decode(ByteBuffer buffer, int offset, int size)
+	{
+		bufferMemory.buffer = buffer;
+		
+		return decode(bufferMemory, offset, size, buffer.limit() - offset);
+	}
+	
+	/**
+	 * Finds the fields of a frame held in memory. The other methods then read and write the fields
+	 * of this frame, in place.
+	 * 
+	 * @param memory	The memory holding the frame
+	 * @param offset	Position of the APPID in the memory
+	 * @param size		GOOSE length of the frame, from the APPID
+	 * @param available	Number of bytes that can be read from the APPID
+	 * @return			0, ERROR_LENGTH, ERROR_TRUNCATED or -1 to -12 when a tag is not the expected one
+	 */
+	public int decode(Memory memory, int offset, int size, int available)
+	{
+		this.memory = memory;
+		this.offset = offset;
+		this.size = size;
+		readable = Math.min(size, available);
+		
+		int position = ADPU_LENGTH_TAG_POS;
+		
+		// Validate the ADPU_LENGTH_TAG
+		if (!fits(position, 2))
+			return ERROR_TRUNCATED;
+		
+		if (getUByte(position) != ADPU_LENGTH_TAG)
+			return -1;
+		
+		position ++;
+		
+		// The ADPU length field has a variable length. It can be 1 byte, 2 bytes or 3 bytes
+		apduLength_length = lengthSize(memory, offset + position);
+		position += apduLength_length;
+		
+		goCBref_tag_position = position;
+		goCBref_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | GOCB_REF_TAG, -2);
+		
+		if (goCBref_length < 0)
+			return goCBref_length;
+		
+		position = valuePosition(position) + goCBref_length;
+		
+		timeAllowedToLive_tag_position = position;
+		timeAllowedToLive_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | TIME_ALLOWED_TO_LIVE_TAG, -3);
+		
+		if (timeAllowedToLive_length < 0)
+			return timeAllowedToLive_length;
+		
+		position = valuePosition(position) + timeAllowedToLive_length;
+		
+		datSet_tag_position = position;
+		datSet_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | DAT_SET_GOOSE_TAG, -4);
+		
+		if (datSet_length < 0)
+			return datSet_length;
+		
+		position = valuePosition(position) + datSet_length;
+		
+		// Validate if a goID field is present. This field is optional
+		goID_length = 0;
+		goID_tag_position = 0;
+		
+		if (fits(position, 1) && (getUByte(position) == (CONTEXT_SPECIFIC_PRIMITIVE | GO_ID_TAG)))
+		{
+			goID_tag_position = position;
+			goID_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | GO_ID_TAG, -4);
+			
+			if (goID_length < 0)
+				return goID_length;
+			
+			position = valuePosition(position) + goID_length;
+		}
+		
+		utc_tag_position = position;
+		int utc_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | UTC_TAG, -5);
+		
+		if (utc_length < 0)
+			return utc_length;
+		
+		// The time stamp always takes 8 bytes
+		if (utc_length != UTC_LENGTH)
+			return -5;
+		
+		position = valuePosition(position) + utc_length;
+		
+		stNum_tag_position = position;
+		stNum_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | ST_NUM_TAG, -6);
+		
+		if (stNum_length < 0)
+			return stNum_length;
+		
+		position = valuePosition(position) + stNum_length;
+		
+		sqNum_tag_position = position;
+		sqNum_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | SQ_NUM_TAG, -7);
+		
+		if (sqNum_length < 0)
+			return sqNum_length;
+		
+		position = valuePosition(position) + sqNum_length;
+		
+		test_tag_position = position;
+		test_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | TEST_TAG, -8);
+		
+		if (test_length < 0)
+			return test_length;
+		
+		position = valuePosition(position) + test_length;
+		
+		confRevGoose_tag_position = position;
+		confRevGoose_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | CONF_REV_GOOSE_TAG, -9);
+		
+		if (confRevGoose_length < 0)
+			return confRevGoose_length;
+		
+		position = valuePosition(position) + confRevGoose_length;
+		
+		ndsCom_tag_position = position;
+		ndsCom_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | NDS_COM_TAG, -10);
+		
+		if (ndsCom_length < 0)
+			return ndsCom_length;
+		
+		position = valuePosition(position) + ndsCom_length;
+		
+		numDatSetEntries_tag_position = position;
+		numDatSetEntries_length = readField(position, CONTEXT_SPECIFIC_PRIMITIVE | NUM_DAT_SET_ENTRIES_TAG, -11);
+		
+		if (numDatSetEntries_length < 0)
+			return numDatSetEntries_length;
+		
+		position = valuePosition(position) + numDatSetEntries_length;
+		
+		allData_tag_position = position;
+		
+		// Validate the ALL_DATA_TAG
+		if (!fits(position, 2))
+			return ERROR_TRUNCATED;
+		
+		if (getUByte(position) != (CONTEXT_SPECIFIC_CONSTRUCTED | ALL_DATA_TAG))
+			return -12;
+		
+		if (!fits(position + 1, lengthSize(memory, offset + position + 1)))
+			return ERROR_TRUNCATED;
+		
+		allData_length = readLength(memory, offset + position + 1);
+		
+		// Lengths on more than 2 bytes are beyond the size of an Ethernet frame
+		if (allData_length < 0)
+			return ERROR_LENGTH;
+		
+		// The data set may not be in the buffer, but it has to be in the frame
+		if (valuePosition(position) + allData_length > size)
+			return ERROR_TRUNCATED;
+		
+		return 0;
+	}
+	
+	/**
+	 * Writes the tags and lengths of a new frame, and its GOOSE length. The values are left as is,
+	 * to be written with the other methods.
+	 * 
+	 * @param buffer	The buffer holding the frame
+	 * @param offset	Position of the APPID in the buffer
+	 * @return			The GOOSE length of the frame, from the APPID
+	 */
+	public int encode(ByteBuffer buffer, int offset, int goCBref_length, int timeAllowedToLive_length,
+			int datSet_length, int goID_length, int stNum_length, int sqNum_length, int test_length,
+			int confRevGoose_length, int ndsCom_length, int numDatSetEntries_length, int allData_length)
+	{
+		bufferMemory.buffer = buffer;
+		
+		return encode(bufferMemory, offset, goCBref_length, timeAllowedToLive_length, datSet_length, goID_length, 
+				stNum_length, sqNum_length, test_length, confRevGoose_length, ndsCom_length, 
+				numDatSetEntries_length, allData_length);
+	}
+	
+	/**
+	 * Writes the tags and lengths of a new frame held in memory, and its GOOSE length. The values
+	 * are left as is, to be written with the other methods.
+	 * 
+	 * @param memory	The memory holding the frame
+	 * @param offset	Position of the APPID in the memory
+	 * @return			The GOOSE length of the frame, from the APPID
+	 */
+	public int encode(Memory memory, int offset, int goCBref_length, int timeAllowedToLive_length,
+			int datSet_length, int goID_length, int stNum_length, int sqNum_length, int test_length,
+			int confRevGoose_length, int ndsCom_length, int numDatSetEntries_length, int allData_length)
+	{
+		int apduLengthValue = apduLength(goCBref_length, timeAllowedToLive_length, datSet_length, goID_length, 
+				stNum_length, sqNum_length, test_length, confRevGoose_length, ndsCom_length, 
+				numDatSetEntries_length, allData_length);
+		
+		this.memory = memory;
+		this.offset = offset;
+		this.size = length(apduLengthValue);
+		readable = size;
+		
+		int position = ADPU_LENGTH_TAG_POS;
+		
+		// Writes the ADPU_LENGTH_TAG and the apduLen
+		// BY IEC 61850-8-1 2004-05 Annex C, ADPU <= 1492
+		setUByte(position, ADPU_LENGTH_TAG);
+		position ++;
+		
+		apduLength_length = writeLength(memory, offset + position, apduLengthValue);
+		position += apduLength_length;
+		
+		// Writes the header length
+		setUByte(LENGTH_POS, size >> 8);
+		setUByte(LENGTH_POS + 1, size & 0xFF);
+		
+		goCBref_tag_position = position;
+		this.goCBref_length = goCBref_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | GOCB_REF_TAG, goCBref_length);
+		
+		timeAllowedToLive_tag_position = position;
+		this.timeAllowedToLive_length = timeAllowedToLive_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | TIME_ALLOWED_TO_LIVE_TAG, timeAllowedToLive_length);
+		
+		datSet_tag_position = position;
+		this.datSet_length = datSet_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | DAT_SET_GOOSE_TAG, datSet_length);
+		
+		// This is an optional field
+		this.goID_length = goID_length;
+		goID_tag_position = 0;
+		
+		if (goID_length != 0)
+		{
+			goID_tag_position = position;
+			position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | GO_ID_TAG, goID_length);
+		}
+		
+		utc_tag_position = position;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | UTC_TAG, UTC_LENGTH);
+		
+		stNum_tag_position = position;
+		this.stNum_length = stNum_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | ST_NUM_TAG, stNum_length);
+		
+		sqNum_tag_position = position;
+		this.sqNum_length = sqNum_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | SQ_NUM_TAG, sqNum_length);
+		
+		test_tag_position = position;
+		this.test_length = test_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | TEST_TAG, test_length);
+		
+		confRevGoose_tag_position = position;
+		this.confRevGoose_length = confRevGoose_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | CONF_REV_GOOSE_TAG, confRevGoose_length);
+		
+		ndsCom_tag_position = position;
+		this.ndsCom_length = ndsCom_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | NDS_COM_TAG, ndsCom_length);
+		
+		numDatSetEntries_tag_position = position;
+		this.numDatSetEntries_length = numDatSetEntries_length;
+		position = writeField(position, CONTEXT_SPECIFIC_PRIMITIVE | NUM_DAT_SET_ENTRIES_TAG, numDatSetEntries_length);
+		
+		allData_tag_position = position;
+		this.allData_length = allData_length;
+		writeField(position, CONTEXT_SPECIFIC_CONSTRUCTED | ALL_DATA_TAG, allData_length);
+		
+		return size;
+	}
+	
+	public boolean goIDPresent()
+	{
+		return (goID_length != 0);
+	}
+	
+	public int appID()
+	{
+		// appID can be in the range of 0x0000 to 0x3FFF IEC 61850-8-1 annex C
+		return (int) readUnsigned(APPID_POS, APPID_LENGTH);
+	}
+	
+	public void appID(int value)
+	{
+		writeUnsigned(APPID_POS, APPID_LENGTH, value);
+	}
+	
+	// This length field is the sum if the GOOSE header and data
+	public int length()
+	{
+		return (int) readUnsigned(LENGTH_POS, LENGTH_LENGTH);
+	}
+	
+	// BY IEC 61850-8-1 2004-05 Annex C, ADPU <= 1492
+	public int apduLen()
+	{
+		return readLength(memory, offset + ADPU_LENGTH_TAG_POS + 1);
+	}
+	
+	public String goCBref()
+	{
+		return readString(goCBref_tag_position, goCBref_length);
+	}
+	
+	public void goCBref(String value)
+	{
+		writeString(goCBref_tag_position, value);
+	}
+	
+	public long timeAllowedToLive()
+	{
+		return readUnsigned(valuePosition(timeAllowedToLive_tag_position), timeAllowedToLive_length);
+	}
+	
+	public void timeAllowedToLive(long value)
+	{
+		writeUnsigned(valuePosition(timeAllowedToLive_tag_position), timeAllowedToLive_length, value);
+	}
+	
+	public String datSet()
+	{
+		return readString(datSet_tag_position, datSet_length);
+	}
+	
+	public void datSet(String value)
+	{
+		writeString(datSet_tag_position, value);
+	}
+	
+	public String goID()
+	{
+		// goID is an optional field.
+		if (goID_tag_position == 0)
+			return "";
+		
+		return readString(goID_tag_position, goID_length);
+	}
+	
+	public void goID(String value)
+	{
+		// goID is an optional field.
+		if (goID_tag_position != 0)
+			writeString(goID_tag_position, value);
+	}
+	
+	// Compares the goID bytes in place, without creating a String
+	public boolean goIDEquals(byte[] value)
+	{
+		if (value.length != goID_length)
+			return false;
+		
+		byte goID[] = readScratch(valuePosition(goID_tag_position), goID_length);
+		
+		for (int position = 0; position < goID_length; position++)
+		{
+			if (goID[position] != value[position])
+				return false;
+		}
+		
+		return true;
+	}
+	
+	// Hash of the goID bytes, read in place. Same as IEC61850_GOOSE_StreamTable.hash()
+	public int goIDHash()
+	{
+		int hash = 0;
+		
+		// goID is an optional field.
+		if (goID_tag_position != 0)
+		{
+			byte goID[] = readScratch(valuePosition(goID_tag_position), goID_length);
+			
+			for (int position = 0; position < goID_length; position++)
+				hash = 31 * hash + (goID[position] & 0xFF);
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * @return	The time stamp in nanoseconds since midnight (00:00:00) of 1970-01-01
+	 */
+	public long utc()
+	{
+		// One read for the seconds, the fraction and the time quality
+		long value = memory.getLong(offset + valuePosition(utc_tag_position));
+		
+		long seconds = value >>> 32;
+		long fraction = (value >>> 8) & MAX_FRACTION;
+		
+		return seconds * NANOS_PER_SECOND + ((fraction * NANOS_PER_SECOND) >>> 24);
+	}
+	
+	/**
+	 * @return	The time quality of the time stamp. Use the IEC61850_GOOSE_UtcTime methods to read the flags
+	 */
+	public int utcTimeQuality()
+	{
+		return getUByte(valuePosition(utc_tag_position) + 7);
+	}
+	
+	/**
+	 * Writes the time stamp, for a time before 2106. The fraction is rounded up, so decoding
+	 * gives back the same time.
+	 * 
+	 * @param nanos			Nanoseconds since midnight (00:00:00) of 1970-01-01
+	 * @param timeQuality	The time quality flags and time accuracy
+	 */
+	public void utc(long nanos, int timeQuality)
+	{
+		int position = valuePosition(utc_tag_position);
+		
+		long seconds = nanos / NANOS_PER_SECOND;
+		long fraction = (((nanos % NANOS_PER_SECOND) << 24) + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+		
+		if (fraction > MAX_FRACTION)
+			fraction = MAX_FRACTION;
+		
+		writeUnsigned(position, 4, seconds);
+		writeUnsigned(position + 4, 4, (fraction << 8) | (timeQuality & 0xFF));
+	}
+	
+	/**
+	 * Writes the last 4 bytes of the time stamp as they are: the fraction of seconds and the time quality
+	 * 
+	 * @param value		The fraction of seconds on 24 bits, followed by the time quality on 8 bits
+	 */
+	public void utcFraction(long value)
+	{
+		writeUnsigned(valuePosition(utc_tag_position) + 4, 4, value);
+	}
+	
+	public long stNum()
+	{
+		return readUnsigned(valuePosition(stNum_tag_position), stNum_length);
+	}
+	
+	public void stNum(long value)
+	{
+		writeUnsigned(valuePosition(stNum_tag_position), stNum_length, value);
+	}
+	
+	public long sqNum()
+	{
+		return readUnsigned(valuePosition(sqNum_tag_position), sqNum_length);
+	}
+	
+	public void sqNum(long value)
+	{
+		writeUnsigned(valuePosition(sqNum_tag_position), sqNum_length, value);
+	}
+	
+	public boolean test()
+	{
+		return readUnsigned(valuePosition(test_tag_position), test_length) != 0;
+	}
+	
+	public void test(boolean value)
+	{
+		writeUnsigned(valuePosition(test_tag_position), test_length, value ? 1 : 0);
+	}
+	
+	public long confRev()
+	{
+		return readUnsigned(valuePosition(confRevGoose_tag_position), confRevGoose_length);
+	}
+	
+	public void confRev(long value)
+	{
+		writeUnsigned(valuePosition(confRevGoose_tag_position), confRevGoose_length, value);
+	}
+	
+	public boolean ndsCom()
+	{
+		return readUnsigned(valuePosition(ndsCom_tag_position), ndsCom_length) != 0;
+	}
+	
+	public void ndsCom(boolean value)
+	{
+		writeUnsigned(valuePosition(ndsCom_tag_position), ndsCom_length, value ? 1 : 0);
+	}
+	
+	public int numDatSetEntries()
+	{
+		return (int) readUnsigned(valuePosition(numDatSetEntries_tag_position), numDatSetEntries_length);
+	}
+	
+	public void numDatSetEntries(int value)
+	{
+		writeUnsigned(valuePosition(numDatSetEntries_tag_position), numDatSetEntries_length, value);
+	}
+	
+	/**
+	 * @return	Position of the data set in the buffer
+	 */
+	public int gooseDataPosition()
+	{
+		return offset + valuePosition(allData_tag_position);
+	}
+	
+	/**
+	 * @return	Length of the data set
+	 */
+	public int gooseDataLength()
+	{
+		return allData_length;
+	}
+	
+	// Returns the apduLength value. It corresponds to all fields length + tags + length fields.
+	// goID is left out when its length is 0
+	static int apduLength(int goCBref_length, int timeAllowedToLive_length,
+			int datSet_length, int goID_length, int stNum_length, int sqNum_length, int test_length,
+			int confRevGoose_length, int ndsCom_length, int numDatSetEntries_length, int allData_length)
+	{
+		int apduLengthValue = fieldLength(goCBref_length) + fieldLength(timeAllowedToLive_length) 
+			+ fieldLength(datSet_length) + fieldLength(UTC_LENGTH) + fieldLength(stNum_length) 
+			+ fieldLength(sqNum_length) + fieldLength(test_length) + fieldLength(confRevGoose_length) 
+			+ fieldLength(ndsCom_length) + fieldLength(numDatSetEntries_length) + fieldLength(allData_length);
+		
+		if (goID_length != 0)
+			apduLengthValue += fieldLength(goID_length);
+		
+		return apduLengthValue;
+	}
+	
+	// Returns the GOOSE length field value, counted from the APPID, for an apduLength value
+	static int length(int apduLengthValue)
+	{
+		return APPID_LENGTH + LENGTH_LENGTH + RESERVED_LENGTH + 1 + lengthSize(apduLengthValue) + apduLengthValue;
+	}
+	
+	// Returns the number of bytes needed to encode a BER length
+	static int lengthSize(int length)
+	{
+		if (length <= 127)
+			return 1;
+		
+		else if (length <= 255)
+			return 2;
+		
+		else
+			return 3;
+	}
+	
+	// Size of a field: tag, length and value
+	private static int fieldLength(int length)
+	{
+		return 1 + lengthSize(length) + length;
+	}
+	
+	// Checks the tag of the field at position and returns its length. Returns ERROR_TRUNCATED if 
+	// the field goes past the frame, ERROR_LENGTH if its length is too long and error if the tag
+	// is not the expected one
+	private int readField(int position, int tag, int error)
+	{
+		if (!fits(position, 2))
+			return ERROR_TRUNCATED;
+		
+		if (getUByte(position) != tag)
+			return error;
+		
+		if (!fits(position + 1, lengthSize(memory, offset + position + 1)))
+			return ERROR_TRUNCATED;
+		
+		int length = readLength(memory, offset + position + 1);
+		
+		if (length < 0)
+			return ERROR_LENGTH;
+		
+		if (!fits(valuePosition(position), length))
+			return ERROR_TRUNCATED;
+		
+		return length;
+	}
+	
+	// Writes the tag and length of a field and returns the position of the next field
+	private int writeField(int position, int tag, int length)
+	{
+		setUByte(position, tag);
+		
+		return position + 1 + writeLength(memory, offset + position + 1, length) + length;
+	}
+	
+	// Returns the position of the value of the field whose tag is at tag_position
+	private int valuePosition(int tag_position)
+	{
+		return tag_position + 1 + lengthSize(memory, offset + tag_position + 1);
+	}
+	
+	private boolean fits(int position, int length)
+	{
+		return position + length <= readable;
+	}
+	
+	// Reads the BER length at position. Up to 127, the length is one byte. Otherwise 0x81 or 0x82
+	// is followed by the length on 1 or 2 bytes. Returns -1 for longer forms, which no Ethernet
+	// frame needs
+	static int readLength(Memory memory, int position)
+	{
+		int first = memory.getUByte(position);
+		
+		if (first <= 127)
+			return first;
+		
+		else if (first == ADPU_LENGTH_1_BYTE)
+			return memory.getUByte(position + 1);
+		
+		else if (first == ADPU_LENGTH_2_BYTE)
+			return (memory.getUByte(position + 1) << 8) | memory.getUByte(position + 2);
+		
+		else
+			return -1;
+	}
+	
+	// Returns the number of bytes of the BER length at position
+	static int lengthSize(Memory memory, int position)
+	{
+		int first = memory.getUByte(position);
+		
+		return (first <= 127) ? 1 : 1 + (first & 0x7F);
+	}
+	
+	// Writes a BER length at position in its shortest form and returns the number of bytes written
+	static int writeLength(Memory memory, int position, int length)
+	{
+		if (length <= 127)
+		{
+			memory.setUByte(position, length);
+			return 1;
+		}
+		else if (length <= 255)
+		{
+			memory.setUByte(position, ADPU_LENGTH_1_BYTE);
+			memory.setUByte(position + 1, length);
+			return 2;
+		}
+		else
+		{
+			memory.setUByte(position, ADPU_LENGTH_2_BYTE);
+			memory.setUByte(position + 1, length >> 8);
+			memory.setUByte(position + 2, length & 0xFF);
+			return 3;
+		}
+	}
+	
+	// The usual lengths are read in one access, the others byte by byte
+	private long readUnsigned(int position, int length)
+	{
+		switch (length)
+		{
+			case 1:
+				return memory.getUByte(offset + position);
+				
+			case 2:
+				return memory.getUShort(offset + position);
+				
+			case 4:
+				return memory.getUInt(offset + position);
+				
+			case 8:
+				return memory.getLong(offset + position);
+				
+			default:
+				long value = 0;
+				
+				for (int index = 0; index < length; index++)
+					value = (value << 8) | getUByte(position + index);
+				
+				return value;
+		}
+	}
+	
+	private void writeUnsigned(int position, int length, long value)
+	{
+		switch (length)
+		{
+			case 1:
+				memory.setUByte(offset + position, (int) (value & 0xFF));
+				break;
+				
+			case 2:
+				memory.setUShort(offset + position, (int) (value & 0xFFFF));
+				break;
+				
+			case 4:
+				memory.setUInt(offset + position, value & 0xFFFFFFFFL);
+				break;
+				
+			default:
+				for (int index = length - 1; index >= 0; index--)
+				{
+					setUByte(position + index, (int) (value & 0xFF));
+					value >>>= 8;
+				}
+		}
+	}
+	
+	// Reads bytes into an array kept by the codec, valid until the next call
+	private byte[] readScratch(int position, int length)
+	{
+		if (scratch.length < length)
+			scratch = new byte[length];
+		
+		return memory.getByteArray(offset + position, scratch, 0, length);
+	}
+	
+	// The strings are MMS visible strings, made of ASCII characters
+	private String readString(int tag_position, int length)
+	{
+		byte byteArray[] = new byte[length];
+		
+		memory.getByteArray(offset + valuePosition(tag_position), byteArray, 0, length);
+		
+		return new String(byteArray, StandardCharsets.US_ASCII);
+	}
+	
+	private void writeString(int tag_position, String value)
+	{
+		memory.setByteArray(offset + valuePosition(tag_position), value.getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	private int getUByte(int position)
+	{
+		return memory.getUByte(offset + position);
+	}
+	
+	private void setUByte(int position, int value)
+	{
+		memory.setUByte(offset + position, value);
+	}
+}
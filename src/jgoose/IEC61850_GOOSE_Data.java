@@ -21,6 +21,37 @@
  * The data format is defined in Standard IEC 61850-8-1
  * GOOSE is used mostly in the Electric power system industry for real-time communications.
  * 
+ * The data set is held as a list of nodes in the order they are encoded. A structure or an array
+ * is a node followed by the nodes of its members. The other nodes are leaves and hold a value.
+ * The entries of the data set are the nodes at the top level.
+ * 
+ * The values are held in parallel primitive arrays, indexed by node. Integer and unsigned
+ * values are held in a long, floating point values in a double and booleans in a boolean.
+ * A bit-string, such as a Quality, is held in a long in which bit n holds bit n of the bit-string.
+ * A UtcTime is held in a long as nanoseconds since 1970-01-01, and its time quality in an int. So
+ * decoding and encoding a data set creates no object. The Object accessors box the values on demand.
+ * 
+ * When decoding, the tree of the data set is only walked when its layout changes. The position
+ * of every node is kept, and the leaves of the following frames are read at those positions as
+ * long as the tags and lengths found there are the same. A payload whose tree does not fit, or whose
+ * values cannot be decoded, is rejected before the layout is replaced.
+ * 
+ * In lazy mode, decoding only checks the layout and copies the payload. Each value is decoded
+ * from the copy the first time it is read after a frame, so a handler reading a few values of a
+ * large data set does not pay for the others.
+ * 
+ * When changes are tracked, the bytes of each entry are compared with the previous payload, and
+ * the entries that differ are set in a BitSet, so handlers can skip the values that did not change.
+ * 
+ * The values are decoded and encoded by the generic code of IEC61850_GOOSE_DataCodec, which looks
+ * at the type and length of each value. With setSpecialisedCodec(true), they are decoded and encoded
+ * by handles built for the current layout instead.
+ * 
+ * The deprecated value, length and dataType fields of the elements are only kept for code written
+ * before the accessors, once turned on with setElementFields(true). They are then refreshed from the
+ * arrays after every decode and encode, and the fields changed by the user are applied before
+ * encoding. This boxes every value of every frame, so the fields are off by default.
+ * 
  * @author  Philippe Venne
  * @version 0.1
  *
@@ -28,83 +59,1007 @@
 
 package jgoose;
 
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.BitSet;
+
 import org.jnetpcap.nio.JBuffer;
 
 public class IEC61850_GOOSE_Data {
 
-	// Variable to hold local data
+	// Views of each entry, kept for the Object API
 	public IEC61850_GOOSE_Data_Element data[];
 	public final int numEntries;
 
+	// Tag, type and encoded length of each node, and the number of nodes of its subtree
+	int tags[];
+	IEC61850_GOOSE_MMS_DataType types[];
+	int lengths[];
+	int subtreeSizes[];
+	int numNodes;
+	
+	// Value of each leaf node, in the array matching its type
+	long longValues[];
+	double doubleValues[];
+	boolean booleanValues[];
+	
+	// Unused bits of each bit-string, and time quality of each UtcTime
+	int unusedBits[];
+	int timeQualities[];
+	
+	// Node of each entry, and the first leaf of each entry
+	final int entryNodes[];
+	final int firstLeaves[];
+	
+	// Node of each leaf, in the order they are encoded
+	int leafNodes[];
+	int numLeaves;
+	
+	// Positions of the tag and of the value of each node in the decoded payload
+	private int tagPositions[];
+	int valuePositions[];
+	
+	// Length of the payload the positions were found in, -1 when they are not known
+	private int layoutLength = -1;
+	
+	// The payload being decoded or encoded, through which IEC61850_GOOSE_Codec reads and writes the lengths
+	final IEC61850_GOOSE_BufferMemory payloadMemory = new IEC61850_GOOSE_BufferMemory(null);
+	
+	// In lazy mode, the copy of the last decoded payload, the number of payloads copied and the
+	// payload number each node was last decoded from
+	private boolean lazy = false;
+	private JBuffer lazyPayload = null;
+	private long payloadNumber = 0;
+	private long decodedPayloadNumbers[];
+	
+	// When changes are tracked, the bytes of the last two payloads and the entries that differ
+	private boolean trackChanges = false;
+	private byte payloadBytes[] = null;
+	private byte previousPayloadBytes[] = null;
+	private final BitSet changedEntries;
+	
+	// Decoder of the current layout and encoder of the current types and lengths, built when
+	// first used. They are not used when the codec is not specialised
+	private boolean specialised = false;
+	private MethodHandle decoder = null;
+	private MethodHandle encoder = null;
+	
+	// When set, the deprecated fields of the elements are kept in step with the arrays
+	private boolean elementFields = false;
+
 	public IEC61850_GOOSE_Data(int numEntries)
 	{
 		data = new IEC61850_GOOSE_Data_Element[numEntries];
 		
 		for (int i = 0; i < numEntries; i++)
-			data[i] = new IEC61850_GOOSE_Data_Element();
+			data[i] = new IEC61850_GOOSE_Data_Element(this, i);
 		
 		this.numEntries = numEntries;
+		
+		entryNodes = new int[numEntries];
+		firstLeaves = new int[numEntries];
+		
+		allocateNodes(numEntries);
+		leafNodes = new int[numEntries];
+		
+		// Until a frame is decoded, every entry is a value
+		for (int i = 0; i < numEntries; i++)
+		{
+			subtreeSizes[i] = 1;
+			entryNodes[i] = i;
+			firstLeaves[i] = i;
+			leafNodes[i] = i;
+		}
+		
+		numNodes = numEntries;
+		numLeaves = numEntries;
+		
+		changedEntries = new BitSet(numEntries);
+	}
+	
+	public void decodeData(JBuffer payload) throws IEC61850_GOOSE_Exception
+	{
+		decodePayload(payload);
+		
+		writeElementFields();
+	}
+	
+	public void encodeData(JBuffer payload)
+	{
+		readElementFields();
+		
+		encodePayload(payload);
+		
+		writeElementFields();
+	}
+	
+	private void decodePayload(JBuffer payload) throws IEC61850_GOOSE_Exception
+	{
+		IEC61850_GOOSE_BufferMemory memory = payloadMemory.of(payload);
+		
+		// We walk through the payload only if its layout changed
+		boolean sameLayout = hasLayout(memory);
+		
+		if (!sameLayout)
+		{
+			// The current layout is kept when the payload is malformed
+			if (checkLayout(memory) == false)
+				throw new IEC61850_GOOSE_Exception("Malformed or truncated data set of " + payload.size() + " bytes");
+			
+			buildLayout(memory);
+		}
+		
+		if (trackChanges)
+			findChangedEntries(payload, sameLayout);
+		
+		// The received buffer is recycled once the frame is handled, so the values are read from a copy
+		if (lazy)
+		{
+			if ((lazyPayload == null) || (lazyPayload.size() < payload.size()))
+			{
+				lazyPayload = new JBuffer(Math.max(payload.size(), 1));
+				lazyPayload.order(java.nio.ByteOrder.BIG_ENDIAN);
+			}
+			
+			payload.transferTo(lazyPayload, 0, payload.size(), 0);
+			payloadNumber++;
+			
+			return;
+		}
+		
+		if (specialised)
+		{
+			if (decoder == null)
+				decoder = IEC61850_GOOSE_DataCodec.decoder(this);
+			
+			IEC61850_GOOSE_DataCodec.run(decoder, this, payload);
+			
+			return;
+		}
+		
+		// We decode each value at its known position
+		for (int leaf = 0; leaf < numLeaves; leaf++)
+			IEC61850_GOOSE_DataCodec.decodeValue(this, payload, leafNodes[leaf], valuePositions[leafNodes[leaf]]);
+	}
+	
+	private void encodePayload(JBuffer payload)
+	{
+		int currentBuffPosition = 0;
+		
+		IEC61850_GOOSE_BufferMemory memory = payloadMemory.of(payload);
+		
+		updateLengths();
+		
+		if (specialised)
+		{
+			if (encoder == null)
+				encoder = IEC61850_GOOSE_DataCodec.encoder(this);
+			
+			IEC61850_GOOSE_DataCodec.run(encoder, this, payload);
+			
+			return;
+		}
+		
+		// We walk through the nodes in order. The members of a structure or array follow it
+		for (int node = 0; node < numNodes; node++)
+		{
+			// The first byte is the data type
+			payload.setUByte(currentBuffPosition, tags[node]);
+			// The data length follows, on 1 to 3 bytes
+			currentBuffPosition += 1 + IEC61850_GOOSE_Codec.writeLength(memory, currentBuffPosition + 1, lengths[node]);
+			
+			if (!isConstructed(node))
+			{
+				// We encode the current data entry
+				IEC61850_GOOSE_DataCodec.encodeValue(this, payload, node, currentBuffPosition);
+				
+				currentBuffPosition += lengths[node];
+			}
+		}
 	}
 	
-	public void decodeData(JBuffer payload)
+	// Checks whether the tags and lengths of the payload are at the known positions
+	private boolean hasLayout(IEC61850_GOOSE_BufferMemory payload)
+	{
+		if (payload.size() != layoutLength)
+			return false;
+		
+		for (int node = 0; node < numNodes; node++)
+		{
+			if ((payload.getUByte(tagPositions[node]) != tags[node])
+					|| (IEC61850_GOOSE_Codec.readLength(payload, tagPositions[node] + 1) != lengths[node]))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	// Checks that the payload holds the entries of the data set and that their values can be decoded
+	private boolean checkLayout(IEC61850_GOOSE_BufferMemory payload)
 	{
 		int currentBuffPosition = 0;
 		
-		// We walk through the payload to decode each data entry
 		for (int currentEntry = 0; currentEntry < numEntries; currentEntry++)
 		{
-			// We decode the current data entry
-			this.data[currentEntry].decode(payload, currentBuffPosition);
+			currentBuffPosition = checkNode(payload, currentBuffPosition);
 			
-			currentBuffPosition++;
-			// We read the current data entry length
-			currentBuffPosition += (payload.getByte(currentBuffPosition) +1);		
+			if (currentBuffPosition == -1)
+				return false;
 		}
+		
+		return true;
 	}
 	
-	public void encodeData(JBuffer payload)
+	// Checks the node at position and its members. Returns the position after the node, or -1
+	private static int checkNode(IEC61850_GOOSE_BufferMemory payload, int position)
+	{
+		if (position + 2 > payload.size())
+			return -1;
+		
+		int length = IEC61850_GOOSE_Codec.readLength(payload, position + 1);
+		int valuePosition = position + 1 + IEC61850_GOOSE_Codec.lengthSize(payload, position + 1);
+		int end = valuePosition + length;
+		
+		if ((length < 0) || (valuePosition > payload.size()) || (end > payload.size()))
+			return -1;
+		
+		IEC61850_GOOSE_MMS_DataType type = IEC61850_GOOSE_MMS_DataType.get(payload.getUByte(position));
+		
+		if ((type == IEC61850_GOOSE_MMS_DataType.structure) || (type == IEC61850_GOOSE_MMS_DataType.array))
+		{
+			// The members have to end with the structure or array
+			int member = valuePosition;
+			
+			while ((member != -1) && (member < end))
+				member = checkNode(payload, member);
+			
+			return (member == end) ? end : -1;
+		}
+		
+		return (IEC61850_GOOSE_DataCodec.valueOf(type, length) != IEC61850_GOOSE_DataCodec.UNSUPPORTED) ? end : -1;
+	}
+	
+	// Walks through the payload to find the nodes of the data set and their positions.
+	// The payload must have passed checkLayout()
+	private void buildLayout(IEC61850_GOOSE_BufferMemory payload)
 	{
 		int currentBuffPosition = 0;
 		
-		// We walk through the payload to encode each data entry
+		layoutLength = -1;
+		numNodes = 0;
+		numLeaves = 0;
+		
+		decoder = null;
+		encoder = null;
+		
+		for (int currentEntry = 0; currentEntry < numEntries; currentEntry++)
+		{
+			entryNodes[currentEntry] = numNodes;
+			firstLeaves[currentEntry] = numLeaves;
+			
+			currentBuffPosition = addNode(payload, currentBuffPosition);
+		}
+		
+		layoutLength = payload.size();
+	}
+	
+	// Adds the node at position and its members to the layout. Returns the position after the node
+	private int addNode(IEC61850_GOOSE_BufferMemory payload, int position)
+	{
+		int node = numNodes++;
+		
+		if (node == tags.length)
+			allocateNodes(2 * node);
+		
+		// The first byte is the data type
+		tags[node] = payload.getUByte(position);
+		types[node] = IEC61850_GOOSE_MMS_DataType.get(tags[node]);
+		
+		// The data length follows, on 1 to 3 bytes
+		lengths[node] = IEC61850_GOOSE_Codec.readLength(payload, position + 1);
+		
+		tagPositions[node] = position;
+		valuePositions[node] = position + 1 + IEC61850_GOOSE_Codec.lengthSize(payload, position + 1);
+		
+		int end = valuePositions[node] + lengths[node];
+		
+		if (isConstructed(node))
+		{
+			// The members follow the structure or array
+			int member = valuePositions[node];
+			
+			while (member < end)
+				member = addNode(payload, member);
+		}
+		else
+		{
+			if (numLeaves == leafNodes.length)
+				leafNodes = Arrays.copyOf(leafNodes, 2 * numLeaves);
+			
+			leafNodes[numLeaves++] = node;
+		}
+		
+		subtreeSizes[node] = numNodes - node;
+		
+		return end;
+	}
+	
+	// Grows the node arrays. Only happens when the layout changes
+	private void allocateNodes(int capacity)
+	{
+		if (tags == null)
+		{
+			tags = new int[capacity];
+			types = new IEC61850_GOOSE_MMS_DataType[capacity];
+			lengths = new int[capacity];
+			subtreeSizes = new int[capacity];
+			longValues = new long[capacity];
+			doubleValues = new double[capacity];
+			booleanValues = new boolean[capacity];
+			unusedBits = new int[capacity];
+			timeQualities = new int[capacity];
+			tagPositions = new int[capacity];
+			valuePositions = new int[capacity];
+			decodedPayloadNumbers = new long[capacity];
+		}
+		else
+		{
+			tags = Arrays.copyOf(tags, capacity);
+			types = Arrays.copyOf(types, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			subtreeSizes = Arrays.copyOf(subtreeSizes, capacity);
+			longValues = Arrays.copyOf(longValues, capacity);
+			doubleValues = Arrays.copyOf(doubleValues, capacity);
+			booleanValues = Arrays.copyOf(booleanValues, capacity);
+			unusedBits = Arrays.copyOf(unusedBits, capacity);
+			timeQualities = Arrays.copyOf(timeQualities, capacity);
+			tagPositions = Arrays.copyOf(tagPositions, capacity);
+			valuePositions = Arrays.copyOf(valuePositions, capacity);
+			decodedPayloadNumbers = Arrays.copyOf(decodedPayloadNumbers, capacity);
+		}
+	}
+	
+	// Computes the length of each structure and array from the length of its members
+	void updateLengths()
+	{
+		// The members follow their structure or array, so they are done before it
+		for (int node = numNodes - 1; node >= 0; node--)
+		{
+			if (isConstructed(node))
+			{
+				int length = 0;
+				
+				for (int member = node + 1; member < node + subtreeSizes[node]; member += subtreeSizes[member])
+					length += 1 + IEC61850_GOOSE_Codec.lengthSize(lengths[member]) + lengths[member];
+				
+				lengths[node] = length;
+			}
+		}
+	}
+	
+	// Compares the bytes of each entry with the previous payload
+	private void findChangedEntries(JBuffer payload, boolean sameLayout)
+	{
+		int size = payload.size();
+		
+		// The arrays are swapped, they are only allocated when the payload grows
+		byte swap[] = previousPayloadBytes;
+		previousPayloadBytes = payloadBytes;
+		payloadBytes = ((swap == null) || (swap.length < size)) ? new byte[size] : swap;
+		
+		payload.getByteArray(0, payloadBytes, 0, size);
+		
+		changedEntries.clear();
+		
+		// Every entry changed when there is nothing to compare with
+		if (!sameLayout || (previousPayloadBytes == null))
+		{
+			changedEntries.set(0, numEntries);
+			return;
+		}
+		
+		// The tags and lengths are the same, only the values are compared
 		for (int currentEntry = 0; currentEntry < numEntries; currentEntry++)
 		{
-			// We encode the current data entry
-			this.data[currentEntry].encode(payload, currentBuffPosition);
+			int node = entryNodes[currentEntry];
+			int end = valuePositions[node] + lengths[node];
 			
-			currentBuffPosition++;
-			// We read the current data entry length
-			currentBuffPosition += (this.data[currentEntry].length +1);		
+			for (int position = valuePositions[node]; position < end; position++)
+			{
+				if (payloadBytes[position] != previousPayloadBytes[position])
+				{
+					changedEntries.set(currentEntry);
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sets whether decoding finds the entries that changed since the previous payload
+	 * 
+	 * @param enabled	true to compare each payload with the previous one
+	 */
+	public void setChangeTracking(boolean enabled)
+	{
+		// The next payload is compared with nothing, so every entry is reported changed
+		previousPayloadBytes = null;
+		payloadBytes = null;
+		changedEntries.clear();
+		
+		trackChanges = enabled;
+	}
+	
+	/**
+	 * Returns the entries whose bytes differ from the previous decoded payload. The BitSet is
+	 * reused by the next decode, and is empty when changes are not tracked.
+	 * 
+	 * @return	The entry numbers of the changed entries
+	 */
+	public BitSet getChangedEntries()
+	{
+		return changedEntries;
+	}
+	
+	/**
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				true if the entry differs from the previous decoded payload
+	 */
+	public boolean isChanged(int entryNumber)
+	{
+		return changedEntries.get(entryNumber);
+	}
+	
+	/**
+	 * Sets whether the values are decoded and encoded by handles built for the layout of the data set,
+	 * or by the generic code looking at the type and length of each value. The generic code is the
+	 * default.
+	 * 
+	 * @param enabled	true to use the handles built for the layout
+	 */
+	public void setSpecialisedCodec(boolean enabled)
+	{
+		specialised = enabled;
+	}
+	
+	// Builds the encoder before the first frame is sent
+	void prepareEncoder()
+	{
+		if (specialised && (encoder == null))
+		{
+			updateLengths();
+			encoder = IEC61850_GOOSE_DataCodec.encoder(this);
 		}
 	}
 	
+	/**
+	 * Sets whether the deprecated value, length and dataType fields of the elements are kept in step
+	 * with the values. They are off by default, as refreshing them boxes every value of every frame.
+	 * In lazy mode, refreshing them decodes every value.
+	 * 
+	 * @param enabled	true to refresh the fields after every decode and encode
+	 */
+	public void setElementFields(boolean enabled)
+	{
+		elementFields = enabled;
+		
+		writeElementFields();
+	}
+	
+	// Copies the entries into the deprecated fields of the elements
+	@SuppressWarnings("deprecation")
+	private void writeElementFields()
+	{
+		if (elementFields)
+		{
+			for (int currentEntry = 0; currentEntry < numEntries; currentEntry++)
+				data[currentEntry].writeFields();
+		}
+	}
+	
+	// Applies the deprecated fields of the elements the user changed since they were written
+	@SuppressWarnings("deprecation")
+	private void readElementFields()
+	{
+		if (elementFields)
+		{
+			for (int currentEntry = 0; currentEntry < numEntries; currentEntry++)
+				data[currentEntry].readFields();
+		}
+	}
+	
+	/**
+	 * Sets whether the values are decoded when they are read instead of when the frame is received.
+	 * 
+	 * @param enabled	true to decode each value on its first read after a frame
+	 */
+	public void setLazyDecoding(boolean enabled)
+	{
+		// The values not read yet are decoded before leaving lazy mode
+		if (lazy && !enabled)
+		{
+			for (int leaf = 0; leaf < numLeaves; leaf++)
+				decodeLazily(leafNodes[leaf]);
+		}
+		
+		lazy = enabled;
+	}
+	
+	// Decodes the value of a node from the copied payload if it was not read since the payload was copied
+	private void decodeLazily(int node)
+	{
+		if (lazy && (lazyPayload != null) && (decodedPayloadNumbers[node] != payloadNumber))
+		{
+			IEC61850_GOOSE_DataCodec.decodeValue(this, lazyPayload, node, valuePositions[node]);
+			decodedPayloadNumbers[node] = payloadNumber;
+		}
+	}
+	
+	private boolean isConstructed(int node)
+	{
+		return (types[node] == IEC61850_GOOSE_MMS_DataType.structure) 
+			|| (types[node] == IEC61850_GOOSE_MMS_DataType.array);
+	}
+	
 	public IEC61850_GOOSE_MMS_DataType getType(int entryNumber)
 	{
-		return data[entryNumber].dataType;
+		return types[entryNodes[entryNumber]];
 	}
 
-	public Object getValue(int entryNumber)
+	public int getLength(int entryNumber)
 	{
-		return data[entryNumber].value;
+		return lengths[entryNodes[entryNumber]];
 	}
 	
-	public int getLength(int entryNumber)
+	public void setType(int entryNumber, IEC61850_GOOSE_MMS_DataType type)
+	{
+		types[entryNodes[entryNumber]] = type;
+		tags[entryNodes[entryNumber]] = type.getTag();
+		
+		decoder = null;
+		encoder = null;
+		
+		// The only bit-string of the ICD data types is the Quality
+		if (type == IEC61850_GOOSE_MMS_DataType.bit_string)
+			unusedBits[entryNodes[entryNumber]] = IEC61850_GOOSE_Quality.QUALITY_UNUSED_BITS;
+	}
+	
+	public void setLength(int entryNumber, int length)
+	{
+		lengths[entryNodes[entryNumber]] = length;
+		
+		decoder = null;
+		encoder = null;
+	}
+	
+	/**
+	 * Returns the value of an entry as a long. A boolean is 1 or 0, a float is truncated.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The value of the entry
+	 */
+	public long getLong(int entryNumber)
+	{
+		return getNodeLong(entryNodes[entryNumber]);
+	}
+	
+	/**
+	 * Returns the value of an entry as a double. A boolean is 1 or 0.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The value of the entry
+	 */
+	public double getDouble(int entryNumber)
+	{
+		return getNodeDouble(entryNodes[entryNumber]);
+	}
+	
+	/**
+	 * Returns the value of an entry as a boolean. A number is true when it is not 0.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The value of the entry
+	 */
+	public boolean getBoolean(int entryNumber)
+	{
+		return getNodeBoolean(entryNodes[entryNumber]);
+	}
+	
+	/**
+	 * Sets the value of an entry from a long, converted to the type of the entry
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @param value			The new value
+	 */
+	public void setLong(int entryNumber, long value)
+	{
+		setNodeLong(entryNodes[entryNumber], value);
+	}
+	
+	/**
+	 * Sets the value of an entry from a double, converted to the type of the entry
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @param value			The new value
+	 */
+	public void setDouble(int entryNumber, double value)
+	{
+		setNodeDouble(entryNodes[entryNumber], value);
+	}
+	
+	/**
+	 * Sets the value of an entry from a boolean, converted to the type of the entry
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @param value			The new value
+	 */
+	public void setBoolean(int entryNumber, boolean value)
+	{
+		setNodeBoolean(entryNodes[entryNumber], value);
+	}
+	
+	/**
+	 * Returns the Quality of an entry. Use the IEC61850_GOOSE_Quality methods to read its bits.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The bits of the bit-string, bit n holding bit n of the bit-string
+	 */
+	public int getQuality(int entryNumber)
+	{
+		decodeLazily(entryNodes[entryNumber]);
+		
+		return (int) longValues[entryNodes[entryNumber]];
+	}
+	
+	/**
+	 * Returns the time quality of a UtcTime entry. The time itself is returned by getLong(), 
+	 * in nanoseconds since midnight (00:00:00) of 1970-01-01.
+	 * Use the IEC61850_GOOSE_UtcTime methods to read the flags.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The time quality flags and time accuracy
+	 */
+	public int getTimeQuality(int entryNumber)
+	{
+		decodeLazily(entryNodes[entryNumber]);
+		
+		return timeQualities[entryNodes[entryNumber]];
+	}
+	
+	public void setTimeQuality(int entryNumber, int timeQuality)
+	{
+		decodeLazily(entryNodes[entryNumber]);
+		
+		timeQualities[entryNodes[entryNumber]] = timeQuality;
+	}
+	
+	/**
+	 * Returns the value of an entry as an object, boxed the way the decoder used to:
+	 * booln as Boolean, integer as Byte, Short, Integer or Long, unsign as Integer or Long
+	 * and float_point as Float or Double, depending on the length of the entry.
+	 * A bit-string is returned as an Integer or a Long holding its bits, and a UtcTime as a Long
+	 * number of nanoseconds.
+	 * A structure or an array is returned as an Object[] of its members.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The value of the entry, or null if the entry has no type
+	 */
+	public Object getValue(int entryNumber)
 	{
-		return data[entryNumber].length;
+		return getNodeValue(entryNodes[entryNumber]);
 	}
 	
+	/**
+	 * Sets the value of an entry from a Boolean or a Number, converted to the type of the entry.
+	 * A structure or an array is set from an Object[] of its members, as returned by getValue()
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @param value			The new value
+	 */
 	public void setValue(int entryNumber, Object value)
 	{
-		data[entryNumber].value = value;
+		setNodeValue(entryNodes[entryNumber], value);
 	}
 	
-	public void setType(int entryNumber, IEC61850_GOOSE_MMS_DataType type)
+	/**
+	 * @return The number of values in the data set, the members of structures and arrays included
+	 */
+	public int getLeafCount()
 	{
-		data[entryNumber].dataType = type;
+		return numLeaves;
 	}
 	
-	public void setLength(int entryNumber, int length)
+	/**
+	 * Returns the leaf number of the first value of an entry. The values of a structure or
+	 * an array entry follow in the order they are encoded.
+	 * 
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The leaf number of the first value of the entry
+	 */
+	public int getFirstLeaf(int entryNumber)
+	{
+		return firstLeaves[entryNumber];
+	}
+	
+	/**
+	 * @param entryNumber	Position of the entry in the data set
+	 * @return				The number of values of the entry, 1 for an entry that is not a structure or an array
+	 */
+	public int getEntryLeafCount(int entryNumber)
+	{
+		if (entryNumber == numEntries - 1)
+			return numLeaves - firstLeaves[entryNumber];
+		
+		return firstLeaves[entryNumber + 1] - firstLeaves[entryNumber];
+	}
+	
+	public IEC61850_GOOSE_MMS_DataType getLeafType(int leafNumber)
+	{
+		return types[leafNodes[leafNumber]];
+	}
+	
+	public int getLeafLength(int leafNumber)
+	{
+		return lengths[leafNodes[leafNumber]];
+	}
+	
+	public long getLeafLong(int leafNumber)
+	{
+		return getNodeLong(leafNodes[leafNumber]);
+	}
+	
+	public double getLeafDouble(int leafNumber)
+	{
+		return getNodeDouble(leafNodes[leafNumber]);
+	}
+	
+	public boolean getLeafBoolean(int leafNumber)
 	{
-		data[entryNumber].length = length;
+		return getNodeBoolean(leafNodes[leafNumber]);
+	}
+	
+	public Object getLeafValue(int leafNumber)
+	{
+		return getNodeValue(leafNodes[leafNumber]);
+	}
+	
+	public int getLeafQuality(int leafNumber)
+	{
+		decodeLazily(leafNodes[leafNumber]);
+		
+		return (int) longValues[leafNodes[leafNumber]];
+	}
+	
+	public int getLeafTimeQuality(int leafNumber)
+	{
+		decodeLazily(leafNodes[leafNumber]);
+		
+		return timeQualities[leafNodes[leafNumber]];
+	}
+	
+	public void setLeafTimeQuality(int leafNumber, int timeQuality)
+	{
+		decodeLazily(leafNodes[leafNumber]);
+		
+		timeQualities[leafNodes[leafNumber]] = timeQuality;
+	}
+	
+	public void setLeafLong(int leafNumber, long value)
+	{
+		setNodeLong(leafNodes[leafNumber], value);
+	}
+	
+	public void setLeafDouble(int leafNumber, double value)
+	{
+		setNodeDouble(leafNodes[leafNumber], value);
+	}
+	
+	public void setLeafBoolean(int leafNumber, boolean value)
+	{
+		setNodeBoolean(leafNodes[leafNumber], value);
+	}
+	
+	private long getNodeLong(int node)
+	{
+		decodeLazily(node);
+		
+		if (types[node] == IEC61850_GOOSE_MMS_DataType.float_point)
+			return (long) doubleValues[node];
+		
+		else if (types[node] == IEC61850_GOOSE_MMS_DataType.booln)
+			return booleanValues[node] ? 1 : 0;
+		
+		else if (isConstructed(node))
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::getLong Structures and arrays have no value");
+		
+		else
+			return longValues[node];
+	}
+	
+	private double getNodeDouble(int node)
+	{
+		decodeLazily(node);
+		
+		if (types[node] == IEC61850_GOOSE_MMS_DataType.float_point)
+			return doubleValues[node];
+		
+		else if (types[node] == IEC61850_GOOSE_MMS_DataType.booln)
+			return booleanValues[node] ? 1 : 0;
+		
+		else if (isConstructed(node))
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::getDouble Structures and arrays have no value");
+		
+		else
+			return longValues[node];
+	}
+	
+	private boolean getNodeBoolean(int node)
+	{
+		decodeLazily(node);
+		
+		if (types[node] == IEC61850_GOOSE_MMS_DataType.float_point)
+			return doubleValues[node] != 0;
+		
+		else if (types[node] == IEC61850_GOOSE_MMS_DataType.booln)
+			return booleanValues[node];
+		
+		else if (isConstructed(node))
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::getBoolean Structures and arrays have no value");
+		
+		else
+			return longValues[node] != 0;
+	}
+	
+	private void setNodeLong(int node, long value)
+	{
+		// The value read later must not be decoded over the new one
+		decodeLazily(node);
+		
+		if (types[node] == IEC61850_GOOSE_MMS_DataType.float_point)
+			doubleValues[node] = value;
+		
+		else if (types[node] == IEC61850_GOOSE_MMS_DataType.booln)
+			booleanValues[node] = (value != 0);
+		
+		else
+			longValues[node] = value;
+	}
+	
+	private void setNodeDouble(int node, double value)
+	{
+		// The value read later must not be decoded over the new one
+		decodeLazily(node);
+		
+		if (types[node] == IEC61850_GOOSE_MMS_DataType.float_point)
+			doubleValues[node] = value;
+		
+		else if (types[node] == IEC61850_GOOSE_MMS_DataType.booln)
+			booleanValues[node] = (value != 0);
+		
+		else
+			longValues[node] = (long) value;
+	}
+	
+	private void setNodeBoolean(int node, boolean value)
+	{
+		// The value read later must not be decoded over the new one
+		decodeLazily(node);
+		
+		if (types[node] == IEC61850_GOOSE_MMS_DataType.float_point)
+			doubleValues[node] = value ? 1 : 0;
+		
+		else if (types[node] == IEC61850_GOOSE_MMS_DataType.booln)
+			booleanValues[node] = value;
+		
+		else
+			longValues[node] = value ? 1 : 0;
+	}
+	
+	private Object getNodeValue(int node)
+	{
+		if (types[node] == null)
+			return null;
+		
+		decodeLazily(node);
+		
+		switch (types[node])
+		{
+			case structure:
+			case array:
+				// We box each member
+				int memberCount = 0;
+				
+				for (int member = node + 1; member < node + subtreeSizes[node]; member += subtreeSizes[member])
+					memberCount++;
+				
+				Object members[] = new Object[memberCount];
+				memberCount = 0;
+				
+				for (int member = node + 1; member < node + subtreeSizes[node]; member += subtreeSizes[member])
+					members[memberCount++] = getNodeValue(member);
+				
+				return members;
+				
+			case booln:
+				return Boolean.valueOf(booleanValues[node]);
+				
+			case integer:
+				if (lengths[node] == 1)
+					return Byte.valueOf((byte) longValues[node]);
+				
+				else if (lengths[node] == 2)
+					return Short.valueOf((short) longValues[node]);
+				
+				else if (lengths[node] == 4)
+					return Integer.valueOf((int) longValues[node]);
+				
+				else
+					return Long.valueOf(longValues[node]);
+				
+			case unsign:
+				if (lengths[node] <= 2)
+					return Integer.valueOf((int) longValues[node]);
+				
+				else
+					return Long.valueOf(longValues[node]);
+				
+			case float_point:
+				if (lengths[node] == 4)
+					return Float.valueOf((float) doubleValues[node]);
+				
+				else
+					return Double.valueOf(doubleValues[node]);
+				
+			case bit_string:
+				if (lengths[node] <= 4)
+					return Integer.valueOf((int) longValues[node]);
+				
+				else
+					return Long.valueOf(longValues[node]);
+				
+			case utc_time:
+				return Long.valueOf(longValues[node]);
+				
+			default:
+				return null;
+		}
+	}
+	
+	private void setNodeValue(int node, Object value)
+	{
+		if (value instanceof Boolean)
+			setNodeBoolean(node, ((Boolean) value).booleanValue());
+		
+		else if ((value instanceof Float) || (value instanceof Double))
+			setNodeDouble(node, ((Number) value).doubleValue());
+		
+		else if (value instanceof Number)
+			setNodeLong(node, ((Number) value).longValue());
+		
+		else if ((value instanceof Object[]) && isConstructed(node))
+		{
+			// We set the members in the order getValue() returns them. A null member is left as is
+			Object members[] = (Object[]) value;
+			int memberCount = 0;
+			
+			for (int member = node + 1; member < node + subtreeSizes[node]; member += subtreeSizes[member])
+				memberCount++;
+			
+			if (memberCount != members.length)
+				throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::setValue Wrong number of members");
+			
+			memberCount = 0;
+			
+			for (int member = node + 1; member < node + subtreeSizes[node]; member += subtreeSizes[member])
+			{
+				if (members[memberCount] != null)
+					setNodeValue(member, members[memberCount]);
+				
+				memberCount++;
+			}
+		}
+		
+		else
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::setValue Unsupported object type");
 	}
 }
@@ -0,0 +1,581 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class builds the decoder and the encoder of a data set layout. Each one is a single
+ * MethodHandle made of one handle per value, bound to the node and the position of the value and
+ * to the method for its type and length. So the type and length of every value are only looked
+ * at when the layout changes, and decoding a frame runs through the values without any switch.
+ * 
+ * The handles are combined as a balanced tree, so the depth of the calls stays the logarithm of
+ * the number of values.
+ * 
+ * The types and lengths accepted in a data set are listed once, in valueOf(). The layout check,
+ * the handles and the generic codec, which looks at the type and length of every value for every
+ * frame, all go through it.
+ * 
+ * The decoder and the encoder are kept in fields of the data set, so the JIT does not see them as
+ * constants and does not inline the tree into the caller. It only compiles the tree for each
+ * instance once it is hot. The generic codec therefore stays the default, until the handles are
+ * measured faster on captured packets, see jgoose_codec_benchmark.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.jnetpcap.nio.JBuffer;
+
+public class IEC61850_GOOSE_DataCodec
+{
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	
+	// Type of the decoders and encoders, and of the method for one value before binding
+	private static final MethodType CODEC_TYPE
+		= MethodType.methodType(void.class, IEC61850_GOOSE_Data.class, JBuffer.class);
+	
+	private static final MethodType VALUE_TYPE
+		= MethodType.methodType(void.class, IEC61850_GOOSE_Data.class, JBuffer.class, int.class, int.class);
+	
+	// Decodes and encodes nothing, for a data set without values
+	private static final MethodHandle NOTHING = find("nothing", CODEC_TYPE);
+	
+	// The values the codecs read and write, one for each type and length accepted in a data set.
+	// A type without a decoder is kept in the layout, but its value is not read
+	static final int UNSUPPORTED = -1;
+	static final int NO_VALUE = 0;
+	static final int BOOLEAN = 1;
+	static final int INTEGER8 = 2;
+	static final int INTEGER16 = 3;
+	static final int INTEGER32 = 4;
+	static final int INTEGER64 = 5;
+	static final int UNSIGNED8 = 6;
+	static final int UNSIGNED16 = 7;
+	static final int UNSIGNED32 = 8;
+	static final int FLOAT32 = 9;
+	static final int FLOAT64 = 10;
+	static final int BIT_STRING = 11;
+	static final int UTC_TIME = 12;
+	
+	// Names of the value methods, without the decode or encode prefix
+	private static final String VALUE_NAMES[] = { null, "Boolean", "Integer8", "Integer16", "Integer32", 
+		"Integer64", "Unsigned8", "Unsigned16", "Unsigned32", "Float32", "Float64", "BitString", "UtcTime" };
+	
+	private static final MethodHandle DECODERS[] = findValueMethods("decode");
+	private static final MethodHandle ENCODERS[] = findValueMethods("encode");
+	
+	// Writes the tag and the length of a node
+	private static final MethodHandle ENCODE_TAG = find("encodeTag", 
+			MethodType.methodType(void.class, IEC61850_GOOSE_Data.class, JBuffer.class, int.class, int.class, int.class));
+	
+	private IEC61850_GOOSE_DataCodec()
+	{
+	}
+	
+	/**
+	 * Builds the decoder of the current layout of a data set. It reads every value at its
+	 * position in the payload the layout was found in.
+	 * 
+	 * @param data	The data set
+	 * @return		A handle of type (IEC61850_GOOSE_Data, JBuffer)void
+	 */
+	static MethodHandle decoder(IEC61850_GOOSE_Data data)
+	{
+		MethodHandle handles[] = new MethodHandle[data.numLeaves];
+		int numHandles = 0;
+		
+		for (int leaf = 0; leaf < data.numLeaves; leaf++)
+		{
+			int node = data.leafNodes[leaf];
+			int value = valueOf(data, node, "decode");
+			
+			if (value != NO_VALUE)
+				handles[numHandles++] = MethodHandles.insertArguments(DECODERS[value], 2, node, data.valuePositions[node]);
+		}
+		
+		return combine(handles, 0, numHandles);
+	}
+	
+	/**
+	 * Builds the encoder of the current types and lengths of a data set. It writes the tags,
+	 * the lengths and the values of all the nodes, the lengths of the structures and arrays
+	 * having been computed by updateLengths().
+	 * 
+	 * @param data	The data set
+	 * @return		A handle of type (IEC61850_GOOSE_Data, JBuffer)void
+	 */
+	static MethodHandle encoder(IEC61850_GOOSE_Data data)
+	{
+		MethodHandle handles[] = new MethodHandle[2 * data.numNodes];
+		int numHandles = 0;
+		int position = 0;
+		
+		for (int node = 0; node < data.numNodes; node++)
+		{
+			handles[numHandles++] = MethodHandles.insertArguments(ENCODE_TAG, 2, 
+					position, data.tags[node], data.lengths[node]);
+			
+			position += 1 + IEC61850_GOOSE_Codec.lengthSize(data.lengths[node]);
+			
+			if (!isConstructed(data, node))
+			{
+				int value = valueOf(data, node, "encode");
+				
+				if (value == NO_VALUE)
+					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::encode Unsupported object type");
+				
+				handles[numHandles++] = MethodHandles.insertArguments(ENCODERS[value], 2, node, position);
+				
+				position += data.lengths[node];
+			}
+		}
+		
+		return combine(handles, 0, numHandles);
+	}
+	
+	/**
+	 * Runs a decoder or an encoder
+	 * 
+	 * @param codec		The decoder or encoder
+	 * @param data		The data set
+	 * @param payload	The payload read or written
+	 */
+	static void run(MethodHandle codec, IEC61850_GOOSE_Data data, JBuffer payload)
+	{
+		try
+		{
+			codec.invokeExact(data, payload);
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Error e)
+		{
+			throw e;
+		}
+		catch (Throwable e)
+		{
+			// The value methods throw no checked exception
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_DataCodec::run " + e);
+		}
+	}
+	
+	// Calls the handles from first to last
+	private static MethodHandle combine(MethodHandle handles[], int first, int end)
+	{
+		if (end == first)
+			return NOTHING;
+		
+		else if (end - first == 1)
+			return handles[first];
+		
+		int middle = (first + end) >>> 1;
+		
+		// The second half is called with the same arguments after the first half
+		return MethodHandles.foldArguments(combine(handles, middle, end), combine(handles, first, middle));
+	}
+	
+	/**
+	 * The table of the types and lengths accepted in a data set, used by the layout check and by
+	 * both codecs.
+	 * 
+	 * @param type		The type of the value, null for a tag without a known type
+	 * @param length	The length of the value
+	 * @return			The value to read and write, NO_VALUE or UNSUPPORTED
+	 */
+	static int valueOf(IEC61850_GOOSE_MMS_DataType type, int length)
+	{
+		if (type == null)
+			return NO_VALUE;
+		
+		switch (type)
+		{
+			case booln:
+				return (length == 1) ? BOOLEAN : UNSUPPORTED;
+				
+			case integer:
+				switch (length)
+				{
+					case 1:
+						return INTEGER8;
+						
+					case 2:
+						return INTEGER16;
+						
+					case 4:
+						return INTEGER32;
+						
+					case 8:
+						return INTEGER64;
+						
+					default:
+						return UNSUPPORTED;
+				}
+				
+			case unsign:
+				switch (length)
+				{
+					case 1:
+						return UNSIGNED8;
+						
+					case 2:
+						return UNSIGNED16;
+						
+					case 4:
+						return UNSIGNED32;
+						
+					default:
+						return UNSUPPORTED;
+				}
+				
+			case float_point:
+				if (length == 4)
+					return FLOAT32;
+				
+				else if (length == 8)
+					return FLOAT64;
+				
+				return UNSUPPORTED;
+				
+			case bit_string:
+				return ((length >= 1) && (length <= 9)) ? BIT_STRING : UNSUPPORTED;
+				
+			case utc_time:
+				return (length == IEC61850_GOOSE_UtcTime.UTC_TIME_LENGTH) ? UTC_TIME : UNSUPPORTED;
+				
+			default:
+				return NO_VALUE;
+		}
+	}
+	
+	/**
+	 * Decodes one value, looking at its type and length. This is the generic codec.
+	 * 
+	 * @param data		The data set
+	 * @param payload	The payload read
+	 * @param node		The node of the value
+	 * @param offset	Position of the value in the payload
+	 */
+	static void decodeValue(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		switch (valueOf(data, node, "decode"))
+		{
+			case BOOLEAN:
+				decodeBoolean(data, payload, node, offset);
+				break;
+				
+			case INTEGER8:
+				decodeInteger8(data, payload, node, offset);
+				break;
+				
+			case INTEGER16:
+				decodeInteger16(data, payload, node, offset);
+				break;
+				
+			case INTEGER32:
+				decodeInteger32(data, payload, node, offset);
+				break;
+				
+			case INTEGER64:
+				decodeInteger64(data, payload, node, offset);
+				break;
+				
+			case UNSIGNED8:
+				decodeUnsigned8(data, payload, node, offset);
+				break;
+				
+			case UNSIGNED16:
+				decodeUnsigned16(data, payload, node, offset);
+				break;
+				
+			case UNSIGNED32:
+				decodeUnsigned32(data, payload, node, offset);
+				break;
+				
+			case FLOAT32:
+				decodeFloat32(data, payload, node, offset);
+				break;
+				
+			case FLOAT64:
+				decodeFloat64(data, payload, node, offset);
+				break;
+				
+			case BIT_STRING:
+				decodeBitString(data, payload, node, offset);
+				break;
+				
+			case UTC_TIME:
+				decodeUtcTime(data, payload, node, offset);
+				break;
+				
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Encodes one value, looking at its type and length. This is the generic codec.
+	 * 
+	 * @param data		The data set
+	 * @param payload	The payload written
+	 * @param node		The node of the value
+	 * @param offset	Position of the value in the payload
+	 */
+	static void encodeValue(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		switch (valueOf(data, node, "encode"))
+		{
+			case BOOLEAN:
+				encodeBoolean(data, payload, node, offset);
+				break;
+				
+			case INTEGER8:
+				encodeInteger8(data, payload, node, offset);
+				break;
+				
+			case INTEGER16:
+				encodeInteger16(data, payload, node, offset);
+				break;
+				
+			case INTEGER32:
+				encodeInteger32(data, payload, node, offset);
+				break;
+				
+			case INTEGER64:
+				encodeInteger64(data, payload, node, offset);
+				break;
+				
+			case UNSIGNED8:
+				encodeUnsigned8(data, payload, node, offset);
+				break;
+				
+			case UNSIGNED16:
+				encodeUnsigned16(data, payload, node, offset);
+				break;
+				
+			case UNSIGNED32:
+				encodeUnsigned32(data, payload, node, offset);
+				break;
+				
+			case FLOAT32:
+				encodeFloat32(data, payload, node, offset);
+				break;
+				
+			case FLOAT64:
+				encodeFloat64(data, payload, node, offset);
+				break;
+				
+			case BIT_STRING:
+				encodeBitString(data, payload, node, offset);
+				break;
+				
+			case UTC_TIME:
+				encodeUtcTime(data, payload, node, offset);
+				break;
+				
+			default:
+				throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::encode Unsupported object type");
+		}
+	}
+	
+	// The value of a node, from the table. Throws if its length is not accepted for its type
+	private static int valueOf(IEC61850_GOOSE_Data data, int node, String method)
+	{
+		int value = valueOf(data.types[node], data.lengths[node]);
+		
+		if (value == UNSUPPORTED)
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Data::" + method + " Cannot use " 
+					+ data.types[node] + " on " + data.lengths[node] + " bytes");
+		
+		return value;
+	}
+	
+	private static boolean isConstructed(IEC61850_GOOSE_Data data, int node)
+	{
+		return (data.types[node] == IEC61850_GOOSE_MMS_DataType.structure) 
+			|| (data.types[node] == IEC61850_GOOSE_MMS_DataType.array);
+	}
+	
+	// One method for each value, NO_VALUE has none
+	private static MethodHandle[] findValueMethods(String prefix)
+	{
+		MethodHandle handles[] = new MethodHandle[VALUE_NAMES.length];
+		
+		for (int value = BOOLEAN; value < VALUE_NAMES.length; value++)
+			handles[value] = find(prefix + VALUE_NAMES[value], VALUE_TYPE);
+		
+		return handles;
+	}
+	
+	private static MethodHandle find(String name, MethodType type)
+	{
+		try
+		{
+			return LOOKUP.findStatic(IEC61850_GOOSE_DataCodec.class, name, type);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	/*
+	 * The methods bound into the decoders and encoders, one for each type and length
+	 */
+	
+	private static void nothing(IEC61850_GOOSE_Data data, JBuffer payload)
+	{
+	}
+	
+	private static void decodeBoolean(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.booleanValues[node] = (payload.getUByte(offset) != 0);
+	}
+	
+	private static void decodeInteger8(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getByte(offset);
+	}
+	
+	private static void decodeInteger16(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getShort(offset);
+	}
+	
+	private static void decodeInteger32(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getInt(offset);
+	}
+	
+	private static void decodeInteger64(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getLong(offset);
+	}
+	
+	private static void decodeUnsigned8(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getUByte(offset);
+	}
+	
+	private static void decodeUnsigned16(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getUShort(offset);
+	}
+	
+	private static void decodeUnsigned32(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = payload.getUInt(offset);
+	}
+	
+	private static void decodeFloat32(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.doubleValues[node] = payload.getFloat(offset);
+	}
+	
+	private static void decodeFloat64(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.doubleValues[node] = payload.getDouble(offset);
+	}
+	
+	private static void decodeBitString(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		int length = data.lengths[node];
+		
+		data.longValues[node] = IEC61850_GOOSE_Quality.decode(payload, offset, length);
+		data.unusedBits[node] = (length > 1) ? payload.getUByte(offset) : 0;
+	}
+	
+	private static void decodeUtcTime(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		data.longValues[node] = IEC61850_GOOSE_UtcTime.decodeNanos(payload, offset);
+		data.timeQualities[node] = IEC61850_GOOSE_UtcTime.decodeTimeQuality(payload, offset);
+	}
+	
+	private static void encodeTag(IEC61850_GOOSE_Data data, JBuffer payload, int position, int tag, int length)
+	{
+		payload.setUByte(position, tag);
+		IEC61850_GOOSE_Codec.writeLength(data.payloadMemory, position + 1, length);
+	}
+	
+	private static void encodeBoolean(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setUByte(offset, data.booleanValues[node] ? 1 : 0);
+	}
+	
+	private static void encodeInteger8(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setByte(offset, (byte) data.longValues[node]);
+	}
+	
+	private static void encodeInteger16(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setShort(offset, (short) data.longValues[node]);
+	}
+	
+	private static void encodeInteger32(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setInt(offset, (int) data.longValues[node]);
+	}
+	
+	private static void encodeInteger64(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setLong(offset, data.longValues[node]);
+	}
+	
+	private static void encodeUnsigned8(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setUByte(offset, (int) (data.longValues[node] & 0xFF));
+	}
+	
+	private static void encodeUnsigned16(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setUShort(offset, (int) (data.longValues[node] & 0xFFFF));
+	}
+	
+	private static void encodeUnsigned32(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setUInt(offset, data.longValues[node] & 0xFFFFFFFFL);
+	}
+	
+	private static void encodeFloat32(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setFloat(offset, (float) data.doubleValues[node]);
+	}
+	
+	private static void encodeFloat64(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		payload.setDouble(offset, data.doubleValues[node]);
+	}
+	
+	private static void encodeBitString(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		IEC61850_GOOSE_Quality.encode(payload, offset, data.lengths[node], data.unusedBits[node], data.longValues[node]);
+	}
+	
+	private static void encodeUtcTime(IEC61850_GOOSE_Data data, JBuffer payload, int node, int offset)
+	{
+		IEC61850_GOOSE_UtcTime.encode(payload, offset, data.longValues[node], data.timeQualities[node]);
+	}
+}
@@ -0,0 +1,419 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class generates the source of a Java class for the data set of a <GSEControl> block of an
+ * ICD file. The class has one typed field per signal and decode() and encode() methods that copy
+ * the fields from and to an IEC61850_GOOSE_Data, with the position of every signal as a constant.
+ *
+ * The signals are read the same way as registerGSEControlBlock() reads them, so the positions
+ * are the ones of the frames built by the API. A field is named after the description of its
+ * signal, or after its IEC 60870-5-104 address "casdu.ioa.ti" when the description is missing
+ * or already used. The names of the fields, of their constants and of the time quality fields are
+ * all unique, and none of them is NUM_ENTRIES or the name of the parameter of the methods.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.lang.model.SourceVersion;
+
+import org.jdom2.JDOMException;
+
+public class IEC61850_GOOSE_DataSetGenerator
+{
+	// Parameter of the generated methods. Field names have no underscore unless they start with
+	// signal_, so no field can be named like it
+	private static final String PARAMETER = "data_set";
+	
+	// Constant holding the number of entries
+	private static final String NUM_ENTRIES = "NUM_ENTRIES";
+	
+	private final IEC61850_GOOSE_ICD_file ICD_Config_file;
+	private final String icd_filename;
+	
+	/**
+	 * Constructor of the IEC61850_GOOSE_DataSetGenerator class
+	 * 
+	 * @param icd_filename	Name of the ICD file
+	 * @param ied_name		Name of the IED in the ICD file
+	 * 
+	 * @throws JDOMException
+	 * @throws IOException
+	 * @throws IEC61850_GOOSE_Exception
+	 */
+	public IEC61850_GOOSE_DataSetGenerator(String icd_filename, String ied_name)
+			throws JDOMException, IOException, IEC61850_GOOSE_Exception
+	{
+		this.icd_filename = icd_filename;
+		ICD_Config_file = new IEC61850_GOOSE_ICD_file(icd_filename, ied_name);
+	}
+	
+	/**
+	 * Writes the class of the data set of a <GSEControl> block in the folder of its package.
+	 * The class is named after the data set when className is null.
+	 * 
+	 * @param appID_name	appID of the <GSEControl> block
+	 * @param packageName	Package of the class, or null for the default package
+	 * @param className		Name of the class, or null
+	 * @param outputFolder	Root folder of the generated sources
+	 * @return				The file written
+	 * 
+	 * @throws IEC61850_GOOSE_Exception
+	 * @throws IOException
+	 */
+	public File generate(String appID_name, String packageName, String className, File outputFolder)
+			throws IEC61850_GOOSE_Exception, IOException
+	{
+		if (className == null)
+		{
+			ICD_Config_file.decodeGSEControlBlock(appID_name);
+			className = identifier(ICD_Config_file.gseControlBlockDatSet, "DataSet");
+		}
+		
+		String source = generate(appID_name, packageName, className);
+		
+		File folder = outputFolder;
+		
+		if (packageName != null)
+			folder = new File(outputFolder, packageName.replace('.', File.separatorChar));
+		
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Could not create folder " + folder);
+		
+		File file = new File(folder, className + ".java");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		
+		try
+		{
+			writer.write(source);
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Returns the source of the class of the data set of a <GSEControl> block
+	 * 
+	 * @param appID_name	appID of the <GSEControl> block
+	 * @param packageName	Package of the class, or null for the default package
+	 * @param className		Name of the class
+	 * @return				The source of the class
+	 * 
+	 * @throws IEC61850_GOOSE_Exception
+	 */
+	public String generate(String appID_name, String packageName, String className) throws IEC61850_GOOSE_Exception
+	{
+		if (!SourceVersion.isName(className))
+			throw new IEC61850_GOOSE_Exception("Invalid class name: " + className);
+		
+		// We read the data set the same way as IEC61850_GOOSE_API::registerGSEControlBlock
+		ICD_Config_file.decodeGSEControlBlock(appID_name);
+		ICD_Config_file.decodeGSEBlock(ICD_Config_file.gseControlBlockName);
+		ICD_Config_file.decodeDataSetBlock(ICD_Config_file.gseControlBlockDatSet, ICD_Config_file.gseldInst);
+		
+		int numEntries = ICD_Config_file.GOOSESignalsList.size();
+		
+		String fields[] = new String[numEntries];
+		Set<String> usedNames = new HashSet<String>();
+		
+		// Every name written in the class. The fields start with a lower case letter and the
+		// constants are in upper case, so they share the set
+		usedNames.add(PARAMETER);
+		usedNames.add(NUM_ENTRIES);
+		
+		// We name the fields. Their constants have to be unique too, the address makes them so
+		for (int position = 0; position < numEntries; position++)
+		{
+			IEC61850_GOOSE_ICD_file.GOOSESignalAttributes signal = ICD_Config_file.GOOSESignalsList.get(position);
+			boolean timestamp = signal.bType.equals("Timestamp");
+			
+			// We check that the type is supported before generating anything
+			javaType(signal, position);
+			
+			String name = identifier(signal.desc, null);
+			
+			if (name != null)
+				name = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+			
+			if ((name == null) || !SourceVersion.isName(name) || !isFree(usedNames, name, timestamp))
+				name = "signal_" + signal.casdu + "_" + signal.ioa + "_" + signal.ti;
+			
+			// The position makes the address unique, unless it was taken by a description
+			String address = name;
+			
+			for (int suffix = position; !isFree(usedNames, name, timestamp); suffix++)
+				name = address + "_" + suffix;
+			
+			usedNames.add(name);
+			usedNames.add(constant(name));
+			
+			if (timestamp)
+				usedNames.add(name + "TimeQuality");
+			
+			fields[position] = name;
+		}
+		
+		StringBuilder source = new StringBuilder();
+		
+		if (packageName != null)
+			source.append("package ").append(packageName).append(";\n\n");
+		
+		source.append("import jgoose.IEC61850_GOOSE_Data;\n");
+		source.append("import jgoose.IEC61850_GOOSE_Exception;\n");
+		source.append("import jgoose.IEC61850_GOOSE_MMS_DataType;\n\n");
+		
+		source.append("/**\n");
+		source.append(" *\n");
+		source.append(" * Data set ").append(ICD_Config_file.gseControlBlockDatSet);
+		source.append(" of the <GSEControl> block ").append(appID_name).append(".\n");
+		source.append(" * Generated from ").append(new File(icd_filename).getName());
+		source.append(" by IEC61850_GOOSE_DataSetGenerator, do not edit.\n");
+		source.append(" *\n");
+		source.append(" */\n");
+		source.append("public class ").append(className).append("\n{\n");
+		
+		source.append("\t// Number of entries of the data set\n");
+		source.append("\tpublic static final int ").append(NUM_ENTRIES).append(" = ").append(numEntries).append(";\n\n");
+		
+		source.append("\t// Position of each signal in the data set\n");
+		
+		for (int position = 0; position < numEntries; position++)
+		{
+			source.append("\tpublic static final int ").append(constant(fields[position]));
+			source.append(" = ").append(position).append(";\n");
+		}
+		
+		source.append("\n");
+		
+		for (int position = 0; position < numEntries; position++)
+		{
+			IEC61850_GOOSE_ICD_file.GOOSESignalAttributes signal = ICD_Config_file.GOOSESignalsList.get(position);
+			
+			source.append("\t// ").append(signal.casdu).append(".").append(signal.ioa).append(".").append(signal.ti);
+			source.append(" ").append(signal.bType);
+			
+			if (signal.desc != null)
+				source.append(" ").append(signal.desc.replace("*/", "* /"));
+			
+			source.append("\n");
+			source.append("\tpublic ").append(javaType(signal, position)).append(" ").append(fields[position]).append(";\n");
+			
+			if (signal.bType.equals("Timestamp"))
+				source.append("\tpublic int ").append(fields[position]).append("TimeQuality;\n");
+		}
+		
+		// check()
+		source.append("\n");
+		source.append("\t/**\n");
+		source.append("\t * Checks that a data set has the entries of this class\n");
+		source.append("\t *\n");
+		source.append("\t * @param ").append(PARAMETER).append("\tThe data set\n");
+		source.append("\t * @throws IEC61850_GOOSE_Exception\n");
+		source.append("\t */\n");
+		source.append("\tpublic static void check(IEC61850_GOOSE_Data ").append(PARAMETER).append(") throws IEC61850_GOOSE_Exception\n\t{\n");
+		source.append("\t\tif (").append(PARAMETER).append(".numEntries != ").append(NUM_ENTRIES).append(")\n");
+		source.append("\t\t\tthrow new IEC61850_GOOSE_Exception(\"Data set has \" + ").append(PARAMETER);
+		source.append(".numEntries + \" entries, expected \" + ").append(NUM_ENTRIES).append(");\n");
+		
+		for (int position = 0; position < numEntries; position++)
+		{
+			String type = IEC61850_GOOSE_MMS_DataType.get(ICD_Config_file.GOOSESignalsList.get(position).bType).name();
+			
+			source.append("\n\t\tif (").append(PARAMETER).append(".getType(").append(constant(fields[position]));
+			source.append(") != IEC61850_GOOSE_MMS_DataType.").append(type).append(")\n");
+			source.append("\t\t\tthrow new IEC61850_GOOSE_Exception(\"Entry ").append(fields[position]);
+			source.append(" is not of type ").append(type).append("\");\n");
+		}
+		
+		source.append("\t}\n");
+		
+		// decode()
+		source.append("\n");
+		source.append("\t/**\n");
+		source.append("\t * Copies the values of a data set into the fields\n");
+		source.append("\t *\n");
+		source.append("\t * @param ").append(PARAMETER).append("\tThe data set\n");
+		source.append("\t */\n");
+		source.append("\tpublic void decode(IEC61850_GOOSE_Data ").append(PARAMETER).append(")\n\t{\n");
+		
+		for (int position = 0; position < numEntries; position++)
+		{
+			IEC61850_GOOSE_ICD_file.GOOSESignalAttributes signal = ICD_Config_file.GOOSESignalsList.get(position);
+			String field = fields[position];
+			String index = constant(field);
+			String type = javaType(signal, position);
+			
+			source.append("\t\t").append(field).append(" = ");
+			
+			if (signal.bType.equals("Quality"))
+				source.append(PARAMETER).append(".getQuality(").append(index).append(");\n");
+			
+			else if (type.equals("boolean"))
+				source.append(PARAMETER).append(".getBoolean(").append(index).append(");\n");
+			
+			else if (type.equals("double"))
+				source.append(PARAMETER).append(".getDouble(").append(index).append(");\n");
+			
+			else if (type.equals("float"))
+				source.append("(float) ").append(PARAMETER).append(".getDouble(").append(index).append(");\n");
+			
+			else if (type.equals("int"))
+				source.append("(int) ").append(PARAMETER).append(".getLong(").append(index).append(");\n");
+			
+			else
+				source.append(PARAMETER).append(".getLong(").append(index).append(");\n");
+			
+			if (signal.bType.equals("Timestamp"))
+				source.append("\t\t").append(field).append("TimeQuality = ").append(PARAMETER).append(".getTimeQuality(").append(index).append(");\n");
+		}
+		
+		source.append("\t}\n");
+		
+		// encode()
+		source.append("\n");
+		source.append("\t/**\n");
+		source.append("\t * Copies the fields into the values of a data set\n");
+		source.append("\t *\n");
+		source.append("\t * @param ").append(PARAMETER).append("\tThe data set\n");
+		source.append("\t */\n");
+		source.append("\tpublic void encode(IEC61850_GOOSE_Data ").append(PARAMETER).append(")\n\t{\n");
+		
+		for (int position = 0; position < numEntries; position++)
+		{
+			IEC61850_GOOSE_ICD_file.GOOSESignalAttributes signal = ICD_Config_file.GOOSESignalsList.get(position);
+			String field = fields[position];
+			String index = constant(field);
+			String type = javaType(signal, position);
+			
+			if (type.equals("boolean"))
+				source.append("\t\t").append(PARAMETER).append(".setBoolean(");
+			
+			else if (type.equals("double") || type.equals("float"))
+				source.append("\t\t").append(PARAMETER).append(".setDouble(");
+			
+			else
+				source.append("\t\t").append(PARAMETER).append(".setLong(");
+			
+			source.append(index).append(", ").append(field).append(");\n");
+			
+			if (signal.bType.equals("Timestamp"))
+				source.append("\t\t").append(PARAMETER).append(".setTimeQuality(").append(index).append(", ").append(field).append("TimeQuality);\n");
+		}
+		
+		source.append("\t}\n");
+		source.append("}\n");
+		
+		return source.toString();
+	}
+	
+	// Returns the Java type holding the values of a signal
+	private static String javaType(IEC61850_GOOSE_ICD_file.GOOSESignalAttributes signal, int position)
+			throws IEC61850_GOOSE_Exception
+	{
+		String bType = signal.bType;
+		
+		if (bType.equals("BOOLEAN"))
+			return "boolean";
+		
+		else if (bType.equals("INT8") || bType.equals("INT16") || bType.equals("INT32") || bType.equals("Enum")
+				|| bType.equals("INT8U") || bType.equals("INT16U") || bType.equals("Quality"))
+			return "int";
+		
+		// The time is in nanoseconds since midnight (00:00:00) of 1970-01-01
+		else if (bType.equals("INT32U") || bType.equals("Timestamp"))
+			return "long";
+		
+		else if (bType.equals("FLOAT32"))
+			return "float";
+		
+		else if (bType.equals("FLOAT64"))
+			return "double";
+		
+		else
+			throw new IEC61850_GOOSE_Exception("Unsupported bType " + bType + " for signal " + String.valueOf(position+1));
+	}
+	
+	// Checks that a field, its constant and its time quality field are not named like another name
+	private static boolean isFree(Set<String> usedNames, String name, boolean timestamp)
+	{
+		return !usedNames.contains(name) && !usedNames.contains(constant(name))
+				&& (!timestamp || !usedNames.contains(name + "TimeQuality"));
+	}
+	
+	// Turns a description into a Java identifier in camel case, or returns fallback
+	private static String identifier(String text, String fallback)
+	{
+		if (text == null)
+			return fallback;
+		
+		StringBuilder name = new StringBuilder();
+		boolean upper = true;
+		
+		for (int index = 0; index < text.length(); index++)
+		{
+			char c = text.charAt(index);
+			
+			if ((c < 128) && Character.isLetterOrDigit(c))
+			{
+				name.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			}
+			else
+				upper = true;
+		}
+		
+		if ((name.length() == 0) || Character.isDigit(name.charAt(0)))
+			return fallback;
+		
+		return name.toString();
+	}
+	
+	// Turns a field name into the name of its position constant
+	private static String constant(String field)
+	{
+		StringBuilder name = new StringBuilder();
+		
+		for (int index = 0; index < field.length(); index++)
+		{
+			char c = field.charAt(index);
+			
+			if (Character.isUpperCase(c) && (index > 0) && (field.charAt(index - 1) != '_'))
+				name.append('_');
+			
+			name.append(Character.toUpperCase(c));
+		}
+		
+		return name.toString();
+	}
+}
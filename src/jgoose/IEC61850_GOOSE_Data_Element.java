@@ -18,374 +18,134 @@
 /**
  * 
  * This class is used to represent a single data element within and IEC61850 frame. 
+ * The element is a view of one entry of an IEC61850_GOOSE_Data object, which holds the values.
+ * 
+ * The value, length and dataType fields are kept for code written before the accessors. Once
+ * turned on with IEC61850_GOOSE_Data.setElementFields(true), they are copies the data set refreshes
+ * after every decode and encode, and a field changed by the user is applied to the data set before
+ * the next encode.
  * 
  * @author  Philippe Venne
- * @version 0.2
+ * @version 0.3
  *
  */
 
 package jgoose;
 
-import org.jnetpcap.nio.JBuffer;
+import java.util.Objects;
 
 public class IEC61850_GOOSE_Data_Element
 {
-	// number of embedded element within this element
-	// Only relevant for Array and Structure type
-	//public int nbOfElements;
+	// The data set holding the element and the position of the element in it
+	private final IEC61850_GOOSE_Data owner;
+	private final int entryNumber;
+	
+	/**
+	 * @deprecated Use getLength() and setLength()
+	 */
+	@Deprecated
 	public int length;
+	
+	/**
+	 * @deprecated Use getType()
+	 */
+	@Deprecated
 	public IEC61850_GOOSE_MMS_DataType dataType;
+	
+	/**
+	 * @deprecated Use getValue() and setValue(), or the typed accessors
+	 */
+	@Deprecated
 	public Object value;
 	
-	IEC61850_GOOSE_Data_Element()
+	// The fields as last written by the data set, to find the ones changed by the user. The value
+	// is a second copy, so changes made inside the array of a structure are found too
+	private int writtenLength;
+	private IEC61850_GOOSE_MMS_DataType writtenDataType;
+	private Object writtenValue;
+	
+	IEC61850_GOOSE_Data_Element(IEC61850_GOOSE_Data owner, int entryNumber)
+	{
+		this.owner = owner;
+		this.entryNumber = entryNumber;
+	}
+	
+	// Refreshes the deprecated fields from the data set
+	@Deprecated
+	void writeFields()
 	{
-		//nbOfElements = 0; // Used with arrays and structures
-		length = 0;
-		dataType = null;
-		value = null;
+		length = writtenLength = owner.getLength(entryNumber);
+		dataType = writtenDataType = owner.getType(entryNumber);
+		value = owner.getValue(entryNumber);
+		writtenValue = owner.getValue(entryNumber);
 	}
 	
-	// This method could not be tested
-	/*
-	private int getNumberOfElements(JBuffer currentEntry, int offset, int length)
+	// Applies the deprecated fields changed by the user to the data set
+	@Deprecated
+	void readFields()
 	{
-		int nbOfElements = 0;
-		int currentElementLenght = 0;
+		if ((dataType != writtenDataType) && (dataType != null))
+			owner.setType(entryNumber, dataType);
 		
-		while (length != 0)
-		{
-			// The first element is the tag
-			offset++;
-			// We read the length of the current element
-			currentElementLenght = currentEntry.getUByte(offset);
-			
-			// We remove form the length the length of the current element,
-			// the length of the tag (1) and the length of the length field (1)
-			length -= currentElementLenght + 2;
-			
-			nbOfElements ++;
-			offset += currentElementLenght + 1;
-		}
+		if (length != writtenLength)
+			owner.setLength(entryNumber, length);
 		
-		return nbOfElements;
+		if ((value != null) && !Objects.deepEquals(value, writtenValue))
+			owner.setValue(entryNumber, value);
 	}
-	*/
 	
-	protected void decode(JBuffer currentEntry, int offset)
+	public IEC61850_GOOSE_MMS_DataType getType()
 	{
-		// The first byte is the data type
-		this.dataType = IEC61850_GOOSE_MMS_DataType.get(currentEntry.getUByte(offset));
-		// The second byte is the data length
-		this.length = currentEntry.getUByte(offset+1);
-		
-		switch (this.dataType)
-		{
-			/*
-			case array:
-			case structure:
-				// The array and structure code could not be tested
-				
-				// The number of elements in the structure or array
-				nbOfElements = getNumberOfElements(currentEntry,offset+2,this.length);
-
-				// Add code to read data
-				
-				break;
-			*/
-				
-			case booln:
-				if (this.length == 1)
-					value = new Boolean(currentEntry.getUByte(offset+2) != 0);
-				
-				else
-					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::decode Cannot read boolean on more than  1 byte");
-				
-				break;
-				
-			case integer:
-				if (this.length == 1)
-					value = new Byte(currentEntry.getByte(offset+2));
-				
-				else if (this.length == 2)
-					value = new Short(currentEntry.getShort(offset+2));
-				
-				else if (this.length == 4)
-					value = new Integer(currentEntry.getInt(offset+2));
-				
-				else if (this.length == 8)
-					value = new Long(currentEntry.getLong(offset+2));
-					
-				else
-					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::decode Cannot read integer on 3 bytes");
-				break;
-				
-			case unsign:
-				if (this.length == 1)
-					value = new Integer(currentEntry.getUByte(offset+2));
-				
-				else if (this.length == 2)
-					value = new Integer(currentEntry.getUShort(offset+2));
-				
-				else if (this.length == 4)
-					value = new Long(currentEntry.getUInt(offset+2));
-					
-				else
-					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::decode Cannot read unsigned integer on 3 bytes");
-				break;
-				
-			case float_point:
-				if (this.length == 4)
-					//TODO test this
-					value = new Float(currentEntry.getFloat(offset+2));
-
-				else if (this.length == 8)
-					//TODO test this
-					value = new Double(currentEntry.getDouble(offset+2));
-				
-				else
-					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::decode Cannot read float on other than 4 or 8 bytes");
-				
-				break;
-				
-			default:
-				throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::decode Unsupported data type");
-		}
+		return owner.getType(entryNumber);
 	}
-
-	protected void encode(JBuffer currentEntry, int offset)
+	
+	public int getLength()
 	{
-		// The first byte is the data type
-		currentEntry.setUByte(offset,this.dataType.getTag());
-		
-		// The second byte is the data length
-		currentEntry.setUByte(offset +1,this.length);
-		
-		switch (this.dataType)
-		{
-			/*
-			case array:
-			case structure:
-				// The array and structure code could not be tested
-				
-				// The number of elements in the structure or array
-				nbOfElements = getNumberOfElements(currentEntry,offset+2,this.length);
-
-				// Add code to read data
-				
-				break;
-			*/
-				
-			case booln:
-				if (this.length == 1)
-				{
-					currentEntry.setUByte(offset+2,(((Boolean)this.value).booleanValue())?1:0);
-				}
-				else
-					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Cannot write boolean on more than  1 byte");
-				
-				break;
-				
-			case integer:
-				if (this.length == 1)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setByte(offset+2,((Byte)this.value).byteValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setByte(offset+2,((Short)this.value).byteValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setByte(offset+2,((Integer)this.value).byteValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setByte(offset+2,((Long)this.value).byteValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-					
-				}
-				else if (this.length == 2)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setShort(offset+2,((Byte)this.value).shortValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setShort(offset+2,((Short)this.value).shortValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setShort(offset+2,((Integer)this.value).shortValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setShort(offset+2,((Long)this.value).shortValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-
-				}
-				else if (this.length == 4)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setInt(offset+2,((Byte)this.value).intValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setInt(offset+2,((Short)this.value).intValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setInt(offset+2,((Integer)this.value).intValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setInt(offset+2,((Long)this.value).intValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-					
-				}
-				else if (this.length == 8)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setLong(offset+2,((Byte)this.value).intValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setLong(offset+2,((Short)this.value).intValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setLong(offset+2,((Integer)this.value).intValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setLong(offset+2,((Long)this.value).intValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-					
-				}	
-				else
-					throw new UnsupportedOperationException("Cannot write integer on 3 bytes");
-				
-				break;
-				
-			case unsign:
-				if (this.length == 1)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setUByte(offset+2,((Byte)this.value).byteValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setUByte(offset+2,((Short)this.value).byteValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setUByte(offset+2,((Integer)this.value).byteValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setUByte(offset+2,((Long)this.value).byteValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-					
-				}
-				else if (this.length == 2)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setUShort(offset+2,((Byte)this.value).shortValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setUShort(offset+2,((Short)this.value).shortValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setUShort(offset+2,((Integer)this.value).shortValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setUShort(offset+2,((Long)this.value).shortValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-
-				}
-				else if (this.length == 4)
-				{
-					if (this.value.getClass() == Byte.class)
-					{
-						currentEntry.setUInt(offset+2,((Byte)this.value).intValue());
-					}
-					else if (this.value.getClass() == Short.class)
-					{
-						currentEntry.setUInt(offset+2,((Short)this.value).intValue());
-					}
-					else if (this.value.getClass() == Integer.class)
-					{
-						currentEntry.setUInt(offset+2,((Integer)this.value).intValue());
-					}
-					else if (this.value.getClass() == Long.class)
-					{
-						currentEntry.setUInt(offset+2,((Long)this.value).intValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-					
-				}	
-				else
-					throw new UnsupportedOperationException("Cannot write integer on 3 bytes");
-				
-				break;
-				
-			case float_point:
-				
-				if (this.length == 4)
-				{
-					if (this.value.getClass() == Float.class)
-					{
-						currentEntry.setFloat(offset+2, ((Float)this.value).floatValue());
-					}
-					else if (this.value.getClass() == Double.class)
-					{
-						currentEntry.setFloat(offset+2, ((Double)this.value).floatValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-				}
-				else if (this.length == 8)
-				{
-					if (this.value.getClass() == Float.class)
-					{
-						currentEntry.setDouble(offset+2, ((Float)this.value).doubleValue());
-					}
-					else if (this.value.getClass() == Double.class)
-					{
-						currentEntry.setDouble(offset+2, ((Double)this.value).doubleValue());
-					}
-					else
-						throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-				}
-				else
-					throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-				
-				break;
-				
-			default:
-				throw new UnsupportedOperationException("In IEC61850_GOOSE_Data_Element::encode Unsupported object type");
-		}
+		return owner.getLength(entryNumber);
+	}
+	
+	public void setLength(int length)
+	{
+		owner.setLength(entryNumber, length);
+	}
+	
+	public Object getValue()
+	{
+		return owner.getValue(entryNumber);
+	}
+	
+	public void setValue(Object value)
+	{
+		owner.setValue(entryNumber, value);
+	}
+	
+	public long getLong()
+	{
+		return owner.getLong(entryNumber);
+	}
+	
+	public double getDouble()
+	{
+		return owner.getDouble(entryNumber);
+	}
+	
+	public boolean getBoolean()
+	{
+		return owner.getBoolean(entryNumber);
+	}
+	
+	public void setLong(long value)
+	{
+		owner.setLong(entryNumber, value);
+	}
+	
+	public void setDouble(double value)
+	{
+		owner.setDouble(entryNumber, value);
+	}
+	
+	public void setBoolean(boolean value)
+	{
+		owner.setBoolean(entryNumber, value);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This class defines a retransmission curve that starts with a short delay and doubles it
+ * after every retransmission, up to the maximum delay.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+public class IEC61850_GOOSE_ExponentialRetransmissionPolicy implements IEC61850_GOOSE_RetransmissionPolicy
+{
+	// The first delay in milliseconds. 0 to use the MinTime of the control block
+	private final long first_delay;
+	
+	public IEC61850_GOOSE_ExponentialRetransmissionPolicy()
+	{
+		this(0);
+	}
+	
+	/**
+	 * Constructor of the IEC61850_GOOSE_ExponentialRetransmissionPolicy class
+	 * 
+	 * @param first_delay	Delay before the first retransmission in milliseconds
+	 */
+	public IEC61850_GOOSE_ExponentialRetransmissionPolicy(long first_delay)
+	{
+		this.first_delay = first_delay;
+	}
+	
+	@Override
+	public long delay(int retransmission, long minimum_delay, long maximum_delay)
+	{
+		long delay = (first_delay > 0) ? first_delay : Math.max(minimum_delay, 1);
+		
+		for (int position = 0; (position < retransmission) && (delay < maximum_delay); position++)
+			delay *= 2;
+		
+		return Math.min(delay, maximum_delay);
+	}
+}
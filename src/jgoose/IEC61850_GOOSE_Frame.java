@@ -26,6 +26,7 @@
 
 package jgoose;
 
+import java.util.BitSet;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Map;
@@ -57,6 +58,9 @@ public class IEC61850_GOOSE_Frame {
 	// This object holds the event handler for the current frame;
 	public IEC61850_GOOSE_FrameEventHandler frameEventHandler;
 	
+	// Called for each changed entry of a received frame, when registered
+	public IEC61850_GOOSE_ChangeEventHandler changeEventHandler = null;
+	
 	// This object hold the frame validity
 	public IEC61850_GOOSE_FrameValidityType frameValidity;
 	
@@ -79,8 +83,8 @@ public class IEC61850_GOOSE_Frame {
 	//public IEC61850_GOOSE_Header goose_header;
 	public IEC61850_GOOSE_Data gooseData;
 	
-	// Maximum number of bytes in packet
-	private static final int packetSize = 512;
+	// Length of the Ethernet header of the transmitted packet
+	private static final int ETHERNET_HEADER_LENGTH = 14;
 	
 	// Field length of the packet
 	private int goCBref_length; 
@@ -214,19 +218,24 @@ public class IEC61850_GOOSE_Frame {
 			switch(IEC61850_GOOSE_MMS_DataType.get(current_signal_map_entry.getValue().bType))
 			{
 				case booln:
-					gooseData.setValue(position, new Boolean(false));
+					gooseData.setBoolean(position, false);
 					break;
 					
 				case integer: // MMS limits to INT32
-					gooseData.setValue(position, new Integer(0));
+					gooseData.setLong(position, 0);
 					break;
 					
 				case unsign: // MMS limits to UINT32
-					gooseData.setValue(position, new Integer(0));
+					gooseData.setLong(position, 0);
 					break;
 					
 				case float_point:
-					gooseData.setValue(position, new Double(0));
+					gooseData.setDouble(position, 0);
+					break;
+					
+				case bit_string: // Quality, good
+				case utc_time: // Timestamp, 1970-01-01
+					gooseData.setLong(position, 0);
 					break;
 					
 				default:
@@ -235,45 +244,28 @@ public class IEC61850_GOOSE_Frame {
 		}
 		
 		allData_length =  sizeOf(gooseData);
+		
+		// The types and lengths are known from the ICD file, so the encoder is built now rather than
+		// when the first frame is sent
+		gooseData.prepareEncoder();
 	}
 	
 	// This function is called when the data was changed
 	public IEC61850_GOOSE_Task updatePacket_From_Frame(IEC61850_GOOSE_Task transmit_task) throws IEC61850_GOOSE_Exception{
 		
-		int new_stNum_length = sizeOf(stNum);
-		int new_sqNum_length = sizeOf(sqNum);
+		stNum_length = sizeOf(stNum);
+		sqNum_length = sizeOf(sqNum);
 		
 		// we update the data length of the data in the frame
-		int new_allData_length = sizeOf(gooseData); 
-		
-		// If the length of a variable length field has changed, we need to update the header
-		if( (new_stNum_length != transmit_task.goose_header.stNumLength()) || 
-				(new_sqNum_length != transmit_task.goose_header.sqNumLength()) || 
-				(new_allData_length != transmit_task.goose_header.gooseDataLength()))
-		{
-			stNum_length = new_stNum_length;
-			sqNum_length = new_sqNum_length;
-			allData_length = new_allData_length;
-			
-			// We need to make a new packet
-			makeNewPacket(transmit_task);
-		}
-		
-		transmit_task.goose_header.sqNum(sqNum);
-		transmit_task.goose_header.stNum(stNum);
-		
-		// We set the UTC flags
-		transmit_task.goose_header.leapSecondsKnown = leapSecondsKnown;
-		transmit_task.goose_header.clockFailure = clockFailure;
-		transmit_task.goose_header.clockNotSynchronized = clockNotSynchronized;
-		transmit_task.goose_header.timeAccuracy = (byte) timeAccuracy;
-		
-		// We encode the data
-		gooseData.encodeData(transmit_task.goose_header.gooseData());
+		allData_length = sizeOf(gooseData); 
 		
 		// time stamp the packet
 		// The time must be at the moment at which stNum was incremented. IEC61850-7-2 18.2.3.5
-		transmit_task.goose_header.utc(new Date());
+		long current_time = System.currentTimeMillis();
+		
+		// The template moves the following fields if the length of a variable length field has changed
+		transmit_task.template.sendValues(this, allData_length, current_time, 
+				IEC61850_GOOSE_Header.utcFraction(current_time, leapSecondsKnown, clockFailure, clockNotSynchronized, timeAccuracy));
 		
 		return transmit_task;
 	}
@@ -281,10 +273,13 @@ public class IEC61850_GOOSE_Frame {
 	public void updateFrame_From_UnknownPacket(JPacket local_jPacket) throws IEC61850_GOOSE_Exception
 	{
 		// We initialise empty headers. Required to decode the packet.
-		Ethernet eth_header = new Ethernet();
-        IEEE802dot1q dot1q_header = new IEEE802dot1q();
-        IEC61850_GOOSE_Header goose_header = new IEC61850_GOOSE_Header();
-        
+		updateFrame_From_UnknownPacket(local_jPacket, new Ethernet(), new IEEE802dot1q(), new IEC61850_GOOSE_Header());
+	}
+	
+	// The headers are peered with the packet. The receive threads reuse theirs for every packet
+	public void updateFrame_From_UnknownPacket(JPacket local_jPacket, Ethernet eth_header, 
+			IEEE802dot1q dot1q_header, IEC61850_GOOSE_Header goose_header) throws IEC61850_GOOSE_Exception
+	{
         if (local_jPacket.hasHeader(eth_header)) 
         {  
         	this.destinationMacAddress = FormatUtils.mac(eth_header.destination());
@@ -359,9 +354,17 @@ public class IEC61850_GOOSE_Frame {
         }
 	}
 	
-	public void updateFrame_From_Packet(JPacket local_jPacket){
+	public void updateFrame_From_Packet(JPacket local_jPacket) throws IEC61850_GOOSE_Exception {
 		
-		IEC61850_GOOSE_Header goose_header = local_jPacket.getHeader( new IEC61850_GOOSE_Header());
+		updateFrame_From_Header(local_jPacket.getHeader( new IEC61850_GOOSE_Header()));
+	}
+	
+	// The header must already be bound to the received packet. When the data set cannot be
+	// decoded, the frame is left unchanged
+	public void updateFrame_From_Header(IEC61850_GOOSE_Header goose_header) throws IEC61850_GOOSE_Exception {
+		
+		// We decode the data first
+		gooseData.decodeData(goose_header.gooseData());
 		
 		this.test = goose_header.test();
 		this.ndsCom = goose_header.ndsCom();
@@ -376,9 +379,6 @@ public class IEC61850_GOOSE_Frame {
 		this.clockFailure = goose_header.clockFailure;
 		this.clockNotSynchronized = goose_header.clockNotSynchronized;
 		this.timeAccuracy = goose_header.timeAccuracy;
-		
-		// We decode the data
-		gooseData.decodeData(goose_header.gooseData());
 	}
 	
 	// This function only increments the sequence number in the frame and the packet
@@ -395,44 +395,30 @@ public class IEC61850_GOOSE_Frame {
 			sqNum = 1;
 		}
 		
-		int new_sqNum_length = sizeOf(sqNum);
+		sqNum_length = sizeOf(sqNum);
 		
-		// If the length of a variable length field has changed, we need make a new packet from scratch
-		if (new_sqNum_length != sqNum_length)
-		{			
-			long time_stamp_original_packet;
-			sqNum_length = new_sqNum_length;
-			
-			// We save the timestamp of the original packet
-			time_stamp_original_packet = transmit_task.goose_header.utc();
-			
-			// We need to make a new packet
-			makeNewPacket(transmit_task);
-			
-			// We set the UTC flags
-			transmit_task.goose_header.leapSecondsKnown = leapSecondsKnown;
-			transmit_task.goose_header.clockFailure = clockFailure;
-			transmit_task.goose_header.clockNotSynchronized = clockNotSynchronized;
-			transmit_task.goose_header.timeAccuracy = (byte) timeAccuracy;
-			
-			// We encode the data
-			gooseData.encodeData(transmit_task.goose_header.gooseData());
-		
-			// time stamp the new packet
-			transmit_task.goose_header.utc(time_stamp_original_packet);
-		}
-		else
-		{
-			// The goose_packet structure did not change. we just need to update sqNum in the header.
-			transmit_task.goose_header.sqNum(sqNum);
-		}
+		// The template moves the following fields if the length of sqNum has changed
+		transmit_task.template.retransmit(sqNum);
 		
 		return transmit_task;
 	}
 	
+	// This function builds the template of the transmitted frames. It only has to be called again
+	// when the constant fields or the data set change
 	public void makeNewPacket(IEC61850_GOOSE_Task transmit_task) throws IEC61850_GOOSE_Exception
 	{
 		
+		// The packet is sized to the frame. The frame must still fit once stNum and sqNum take 4 bytes
+		int apduLength = IEC61850_GOOSE_Codec.apduLength(goCBref_length, timeAllowedToLive_length, 
+				datSet_length, goID_length, stNum_length, sqNum_length, test_length, 
+				confRevGoose_length, ndsCom_length, numDatSetEntries_length, allData_length);
+		
+		if (IEC61850_GOOSE_Codec.length(apduLength + (4 - stNum_length) + (4 - sqNum_length)) 
+				> IEC61850_GOOSE_Codec.MAX_LENGTH)
+			throw new IEC61850_GOOSE_Exception("GOOSE frame of " + goCBref + " does not fit an Ethernet frame");
+		
+		int packetSize = ETHERNET_HEADER_LENGTH + IEC61850_GOOSE_Codec.length(apduLength);
+		
 		// We initialise the new packet
 		JMemoryPacket local_goose_memoryPacket = new JMemoryPacket(packetSize);
 		local_goose_memoryPacket.order(java.nio.ByteOrder.BIG_ENDIAN);
@@ -450,7 +436,7 @@ public class IEC61850_GOOSE_Frame {
 		eth_header.type(0x88b8);
 		
 		// set GOOSE header length to a possible value for the GOOSE header to be identified
-		local_goose_memoryPacket.setByte(17, (byte)(packetSize - 14));
+		local_goose_memoryPacket.setUShort(ETHERNET_HEADER_LENGTH + 2, packetSize - ETHERNET_HEADER_LENGTH);
 		
 		// We need to rescan to identify the goose header
 		local_goose_memoryPacket.scan(JProtocol.ETHERNET_ID); 
@@ -488,8 +474,8 @@ public class IEC61850_GOOSE_Frame {
 		local_goose_header.appID(appID);
 		
 		
-		transmit_task.goose_header = local_goose_header;
-		transmit_task.goose_memoryPacket = local_goose_memoryPacket;
+		// The packet is only kept as the template the transmitted frames are patched in
+		transmit_task.template = new IEC61850_GOOSE_FrameTemplate(local_goose_memoryPacket, local_goose_header);
 	}
 
 	public void setValueByKey(String key_name,Object value) throws IEC61850_GOOSE_Exception{
@@ -502,11 +488,18 @@ public class IEC61850_GOOSE_Frame {
 		// BE CAREFULL
 		// The GOOSE_Signal data attribute is a reference to the GOOSE_Data_Element object that is held 
 		// inside the gooseData attribute of the GOOSE_Frame
-		gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data.value = value;
+		gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data.setValue(value);
 		
 		// We update the dataLength
-		gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data.length 
-			= sizeOf(gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data);
+		gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data.setLength(
+			sizeOf(gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data));
+	}
+	
+	// Returns the positions of the data set entries that changed in the last decoded frame.
+	// Empty unless change tracking is enabled for the block
+	public BitSet getChangedEntries()
+	{
+		return gooseData.getChangedEntries();
 	}
 	
 	public Object getValueByKey(String key_name) throws IEC61850_GOOSE_Exception
@@ -515,7 +508,7 @@ public class IEC61850_GOOSE_Frame {
 		if (gseControlBlockAttributes.GOOSESignalsMap.containsKey(key_name) == false)
 			throw new IEC61850_GOOSE_Exception("Invalid key in setDataByKey");
 		
-		return gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data.value;
+		return gseControlBlockAttributes.GOOSESignalsMap.get(key_name).data.getValue();
 		
 		//return dataMap.get(key_name).data;
 		// return null;
@@ -638,10 +631,13 @@ public class IEC61850_GOOSE_Frame {
 		{
 			int total_size = 0;
 			
+			// The length of the structures and arrays follows from their members
+			((IEC61850_GOOSE_Data)data).updateLengths();
+			
 			for(int currentEntry = 0; currentEntry < ((IEC61850_GOOSE_Data)data).numEntries; currentEntry++)
 			{
-				// We add 1 byte for the flag and 1 byte for the size
-				total_size += 2;
+				// We add 1 byte for the flag and 1 to 3 bytes for the size
+				total_size += 1 + IEC61850_GOOSE_Codec.lengthSize(((IEC61850_GOOSE_Data)data).getLength(currentEntry));
 				// We add the actual size
 				total_size += ((IEC61850_GOOSE_Data)data).getLength(currentEntry);
 			}
@@ -650,7 +646,7 @@ public class IEC61850_GOOSE_Frame {
 		}
 		else if (data.getClass() == IEC61850_GOOSE_Data_Element.class)
 		{
-			return ((IEC61850_GOOSE_Data_Element)data).length;
+			return ((IEC61850_GOOSE_Data_Element)data).getLength();
 			
 			/*
 			
@@ -0,0 +1,265 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class defines the precompiled packet of a transmit control block. It keeps the constant
+ * bytes of the frame and the positions of stNum, sqNum, utc, test, ndsCom and allData, so sending
+ * a frame only patches those bytes in the packet.
+ *
+ * When stNum, sqNum or allData change length, the fields following them are laid out again in
+ * the same packet from the constant bytes. The template itself is only built again when the
+ * constant fields or the data set change.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.nio.JMemory.Type;
+
+public class IEC61850_GOOSE_FrameTemplate
+{
+	// Maximum number of bytes in packet: the Ethernet header and the largest GOOSE length
+	static final int MAX_PACKET_SIZE = 14 + IEC61850_GOOSE_Codec.MAX_LENGTH;
+
+	private static final int ST_NUM_TAG = 0x85;
+	private static final int SQ_NUM_TAG = 0x86;
+	private static final int ALL_DATA_TAG = 0xAB;
+
+	// Constant bytes of the frame: the Ethernet header up to the APDU tag, gocbRef up to utc
+	// and test up to numDatSetEntries
+	private final byte[] head;
+	private final byte[] body;
+	private final byte[] middle;
+
+	// Position of the GOOSE length field in the packet
+	private final int length_position;
+
+	// Position of ndsCom in the middle bytes
+	private final int ndsCom_middle_position;
+
+	// When set, stNum and sqNum are always encoded on 4 bytes, so the length of the frame never changes
+	boolean fixedCounterLength = false;
+
+	// Layout of the packet: positions of the tags and length of the values
+	private int utc_position;
+	private int stNum_position;
+	private int stNum_length;
+	private int sqNum_position;
+	private int sqNum_length;
+	private int middle_position;
+	private int allData_position;
+	private int allData_value_position;
+	private int allData_length;
+
+	// Memory holding the packet, and a second one used to move allData
+	private final JBuffer buffer = new JBuffer(MAX_PACKET_SIZE);
+	private final JBuffer scratch = new JBuffer(MAX_PACKET_SIZE);
+
+	// The packet memory, through which IEC61850_GOOSE_Codec writes the BER lengths
+	private final IEC61850_GOOSE_BufferMemory memory = new IEC61850_GOOSE_BufferMemory(buffer);
+
+	// The packet to send, peered with the used part of buffer. The port queues a copy of it, so it
+	// may be patched while a previous frame still waits in the egress queue
+	final JBuffer packet = new JBuffer(Type.POINTER);
+
+	// Peered with the allData value for encoding
+	private final JBuffer allData = new JBuffer(Type.POINTER);
+
+	/**
+	 * Constructor of the IEC61850_GOOSE_FrameTemplate class
+	 *
+	 * @param encoded_packet	Packet holding the constant fields of the frame
+	 * @param goose_header		GOOSE header bound to the encoded packet
+	 */
+	public IEC61850_GOOSE_FrameTemplate(JBuffer encoded_packet, IEC61850_GOOSE_Header goose_header)
+	{
+		int offset = goose_header.getOffset();
+
+		int goCBref_position = offset + goose_header.goCBrefOffset() / 8;
+		int utc_end = offset + goose_header.utcOffset() / 8 + 2 + goose_header.utcLength();
+		int test_position = offset + goose_header.testOffset() / 8;
+		int numDatSetEntries_end = offset + goose_header.numDatSetEntriesOffset() / 8 + 2
+				+ goose_header.numDatSetEntriesLength();
+
+		head = encoded_packet.getByteArray(0, goCBref_position - goose_header.apduLenLength());
+		body = encoded_packet.getByteArray(goCBref_position, utc_end - goCBref_position);
+		middle = encoded_packet.getByteArray(test_position, numDatSetEntries_end - test_position);
+
+		// The GOOSE length follows the APPID
+		length_position = offset + 2;
+		ndsCom_middle_position = offset + goose_header.ndsComOffset() / 8 - test_position;
+
+		buffer.order(java.nio.ByteOrder.BIG_ENDIAN);
+		allData.order(java.nio.ByteOrder.BIG_ENDIAN);
+
+		buffer.setByteArray(0, head);
+
+		layout(goose_header.stNumLength(), goose_header.sqNumLength(), goose_header.gooseDataLength(), false);
+	}
+
+	/**
+	 * Writes the values of a new state of the frame: stNum, sqNum, test, ndsCom, allData and the time stamp
+	 *
+	 * @param frame				The frame to transmit
+	 * @param allData_length	Length of the encoded data of the frame
+	 * @param utc				Time stamp in milliseconds since midnight (00:00:00) of 1970-01-01
+	 * @param utcFraction		Last 4 bytes of the time stamp, the fraction of seconds and the time quality
+	 */
+	void sendValues(IEC61850_GOOSE_Frame frame, int allData_length, long utc, long utcFraction)
+	{
+		int new_stNum_length = counterLength(frame.stNum);
+		int new_sqNum_length = counterLength(frame.sqNum);
+
+		if ((new_stNum_length != stNum_length) || (new_sqNum_length != sqNum_length)
+				|| (allData_length != this.allData_length))
+			layout(new_stNum_length, new_sqNum_length, allData_length, false);
+
+		writeUnsigned(stNum_position + 2, stNum_length, frame.stNum);
+		writeUnsigned(sqNum_position + 2, sqNum_length, frame.sqNum);
+
+		buffer.setUByte(middle_position + 2, frame.test ? 1 : 0);
+		buffer.setUByte(middle_position + ndsCom_middle_position + 2, frame.ndsCom ? 1 : 0);
+
+		buffer.setUInt(utc_position, utc / 1000);
+		buffer.setUInt(utc_position + 4, utcFraction);
+
+		allData.peer(buffer, allData_value_position, this.allData_length);
+		frame.gooseData.encodeData(allData);
+	}
+
+	/**
+	 * Writes the sqNum of a retransmission. The rest of the frame is left as is.
+	 *
+	 * @param sqNum	The sequence number
+	 */
+	void retransmit(long sqNum)
+	{
+		int new_sqNum_length = counterLength(sqNum);
+
+		if (new_sqNum_length != sqNum_length)
+		{
+			// We keep the values of the current state
+			long stNum = readUnsigned(stNum_position + 2, stNum_length);
+			long utc = buffer.getUInt(utc_position);
+			long utcFraction = buffer.getUInt(utc_position + 4);
+			int test = buffer.getUByte(middle_position + 2);
+			int ndsCom = buffer.getUByte(middle_position + ndsCom_middle_position + 2);
+
+			layout(stNum_length, new_sqNum_length, allData_length, true);
+
+			writeUnsigned(stNum_position + 2, stNum_length, stNum);
+			buffer.setUInt(utc_position, utc);
+			buffer.setUInt(utc_position + 4, utcFraction);
+			buffer.setUByte(middle_position + 2, test);
+			buffer.setUByte(middle_position + ndsCom_middle_position + 2, ndsCom);
+		}
+
+		writeUnsigned(sqNum_position + 2, sqNum_length, sqNum);
+	}
+
+	// Lays out the fields of the frame that follow the head for the given lengths.
+	// The allData value is moved when kept, the other values have to be written again
+	private void layout(int new_stNum_length, int new_sqNum_length, int new_allData_length, boolean keepData)
+	{
+		if (keepData)
+			buffer.transferTo(scratch, allData_value_position, allData_length, 0);
+
+		int apduLengthValue = body.length + 2 + new_stNum_length + 2 + new_sqNum_length + middle.length
+				+ 1 + IEC61850_GOOSE_Codec.lengthSize(new_allData_length) + new_allData_length;
+
+		int position = head.length;
+
+		// BY IEC 61850-8-1 2004-05 Annex C, ADPU <= 1492
+		position += IEC61850_GOOSE_Codec.writeLength(memory, position, apduLengthValue);
+
+		buffer.setByteArray(position, body);
+		position += body.length;
+		utc_position = position - 8;
+
+		stNum_position = position;
+		stNum_length = new_stNum_length;
+		buffer.setUByte(position, ST_NUM_TAG);
+		buffer.setUByte(position + 1, stNum_length);
+		position += 2 + stNum_length;
+
+		sqNum_position = position;
+		sqNum_length = new_sqNum_length;
+		buffer.setUByte(position, SQ_NUM_TAG);
+		buffer.setUByte(position + 1, sqNum_length);
+		position += 2 + sqNum_length;
+
+		middle_position = position;
+		buffer.setByteArray(position, middle);
+		position += middle.length;
+
+		allData_position = position;
+		allData_length = new_allData_length;
+		buffer.setUByte(position, ALL_DATA_TAG);
+		position += 1 + IEC61850_GOOSE_Codec.writeLength(memory, position + 1, allData_length);
+		allData_value_position = position;
+
+		if (keepData)
+			scratch.transferTo(buffer, 0, allData_length, position);
+
+		position += allData_length;
+
+		// The GOOSE length counts from the APPID
+		buffer.setUShort(length_position, position - length_position + 2);
+
+		packet.peer(buffer, 0, position);
+	}
+
+	private long readUnsigned(int position, int length)
+	{
+		long value = 0;
+
+		for (int index = 0; index < length; index++)
+			value = (value << 8) | buffer.getUByte(position + index);
+
+		return value;
+	}
+
+	private void writeUnsigned(int position, int length, long value)
+	{
+		for (int index = length - 1; index >= 0; index--)
+		{
+			buffer.setUByte(position + index, (int) (value & 0xFF));
+			value >>>= 8;
+		}
+	}
+
+	// Same lengths as IEC61850_GOOSE_Frame uses for unsigned values
+	private int counterLength(long value)
+	{
+		if (fixedCounterLength)
+			return 4;
+
+		else if (value <= 255)
+			return 1;
+
+		else if (value <= 65535)
+			return 2;
+
+		else
+			return 4;
+	}
+}
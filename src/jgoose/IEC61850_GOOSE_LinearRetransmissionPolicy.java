@@ -0,0 +1,58 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This class defines the default retransmission curve of IEC 61850-8-1/2011 18.1.2.5.1.
+ * With 5 steps, the delays are maximum/5, maximum/5, 2*maximum/5, 3*maximum/5, then maximum.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+public class IEC61850_GOOSE_LinearRetransmissionPolicy implements IEC61850_GOOSE_RetransmissionPolicy
+{
+	private final int steps;
+	
+	public IEC61850_GOOSE_LinearRetransmissionPolicy()
+	{
+		this(5);
+	}
+	
+	/**
+	 * Constructor of the IEC61850_GOOSE_LinearRetransmissionPolicy class
+	 * 
+	 * @param steps	Number of fractions of the maximum delay
+	 */
+	public IEC61850_GOOSE_LinearRetransmissionPolicy(int steps)
+	{
+		this.steps = Math.max(steps, 1);
+	}
+	
+	@Override
+	public long delay(int retransmission, long minimum_delay, long maximum_delay)
+	{
+		if (retransmission >= steps - 1)
+			return maximum_delay;
+		
+		// The first two retransmissions both wait one step
+		return maximum_delay * Math.max(retransmission, 1) / steps;
+	}
+}
@@ -40,7 +40,7 @@ public enum IEC61850_GOOSE_MMS_DataType
 	 array				(0xa1),
 	 structure			(0xa2,	"Struct", 	"0"),
 	 booln				(0x83,	"BOOLEAN", 	"1"),
-	 bit_string			(0x84,	"Quality", 	"0",	"Timestamp","0"),
+	 bit_string			(0x84,	"Quality", 	"3"),
 	 integer			(0x85,	"INT16", 	"2",	"INT32",	"4", 	"INT8",		"1",	"Enum",	"1"),
 	 unsign				(0x86,	"INT8U", 	"1", 	"INT16U", 	"2", 	"INT32U", 	"4"),
 	 float_point		(0x87,	"FLOAT64",	"8", 	"FLOAT32", 	"4"),
@@ -51,7 +51,7 @@ public enum IEC61850_GOOSE_MMS_DataType
 	 bcd				(0x8d),
 	 boolean_array		(0x8e),
 	 obj_id				(0x8f),
-	 utc_time			(0x91,	"Timestamp","0");
+	 utc_time			(0x91,	"Timestamp","8");
 	 
 	 // Holds the tag for each value of the enumeration 
 	 public final int tag;
@@ -62,9 +62,9 @@ public enum IEC61850_GOOSE_MMS_DataType
 	 // Holds the pairs of Byte size and IEC Datatype
 	 public final Map<String,Integer> iec_size = new HashMap<String,Integer>();
 	 
-	 // This Map holds each Integer MMS_DataType pair
-	 private static final Map<Integer,IEC61850_GOOSE_MMS_DataType> tag_lookup 
-     = new HashMap<Integer,IEC61850_GOOSE_MMS_DataType>();
+	 // This array holds the MMS_DataType of each tag. An array avoids boxing the tag when decoding
+	 private static final IEC61850_GOOSE_MMS_DataType[] tag_lookup 
+     = new IEC61850_GOOSE_MMS_DataType[256];
      
      // This Map holds each MMS_DataType iec_list pair
      private static final Map<IEC61850_GOOSE_MMS_DataType, List<String>> iec_lookup 
@@ -78,7 +78,7 @@ public enum IEC61850_GOOSE_MMS_DataType
      {
     	 // Populates the map
          for(IEC61850_GOOSE_MMS_DataType t : EnumSet.allOf(IEC61850_GOOSE_MMS_DataType.class))
-        	 tag_lookup.put(t.getTag(), t);
+        	 tag_lookup[t.getTag()] = t;
          
          // Populates the map
          for(IEC61850_GOOSE_MMS_DataType t : EnumSet.allOf(IEC61850_GOOSE_MMS_DataType.class))
@@ -120,7 +120,7 @@ public enum IEC61850_GOOSE_MMS_DataType
 	 
 	 public static IEC61850_GOOSE_MMS_DataType get(int tag) 
 	 { 
-          return tag_lookup.get(tag); 
+          return ((tag >= 0) && (tag < tag_lookup.length)) ? tag_lookup[tag] : null; 
      }
 	 
 	 public static int get_size(String iec_type) throws IEC61850_GOOSE_Exception
@@ -0,0 +1,161 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This class decodes and encodes the Quality of IEC 61850-7-3, sent as a 13 bit MMS bit-string.
+ * A quality is handled as an int in which bit n holds bit n of the bit-string, so it can be
+ * read and tested without creating any object.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import org.jnetpcap.nio.JBuffer;
+
+public class IEC61850_GOOSE_Quality
+{
+	// Values returned by validity()
+	public static final int VALIDITY_GOOD			= 0;
+	public static final int VALIDITY_INVALID		= 1;
+	public static final int VALIDITY_RESERVED		= 2;
+	public static final int VALIDITY_QUESTIONABLE	= 3;
+	
+	// The detail quality bits
+	public static final int OVERFLOW				= 1 << 2;
+	public static final int OUT_OF_RANGE			= 1 << 3;
+	public static final int BAD_REFERENCE			= 1 << 4;
+	public static final int OSCILLATORY				= 1 << 5;
+	public static final int FAILURE					= 1 << 6;
+	public static final int OLD_DATA				= 1 << 7;
+	public static final int INCONSISTENT			= 1 << 8;
+	public static final int INACCURATE				= 1 << 9;
+	
+	// Set when the value is substituted, cleared when it comes from the process
+	public static final int SOURCE_SUBSTITUTED		= 1 << 10;
+	public static final int TEST					= 1 << 11;
+	public static final int OPERATOR_BLOCKED		= 1 << 12;
+	
+	// Number of bits of a quality, and the unused bits of its 2 bytes
+	public static final int QUALITY_BITS			= 13;
+	static final int QUALITY_UNUSED_BITS			= 3;
+	
+	// Encoded length of a quality: the number of unused bits and 2 bytes
+	static final int QUALITY_LENGTH					= 3;
+	
+	/**
+	 * @param quality	The quality
+	 * @return			VALIDITY_GOOD, VALIDITY_INVALID, VALIDITY_RESERVED or VALIDITY_QUESTIONABLE
+	 */
+	public static int validity(int quality)
+	{
+		// Bit 0 is the most significant bit of the validity
+		return ((quality & 1) << 1) | ((quality >> 1) & 1);
+	}
+	
+	public static boolean isGood(int quality)
+	{
+		return validity(quality) == VALIDITY_GOOD;
+	}
+	
+	public static boolean isInvalid(int quality)
+	{
+		return validity(quality) == VALIDITY_INVALID;
+	}
+	
+	public static boolean isQuestionable(int quality)
+	{
+		return validity(quality) == VALIDITY_QUESTIONABLE;
+	}
+	
+	/**
+	 * @param quality	The quality
+	 * @param bit		One of the detail bits, for example OLD_DATA or TEST
+	 * @return			true if the bit is set
+	 */
+	public static boolean isSet(int quality, int bit)
+	{
+		return (quality & bit) != 0;
+	}
+	
+	/**
+	 * Changes the validity of a quality
+	 * 
+	 * @param quality	The quality
+	 * @param validity	VALIDITY_GOOD, VALIDITY_INVALID, VALIDITY_RESERVED or VALIDITY_QUESTIONABLE
+	 * @return			The quality with the new validity
+	 */
+	public static int withValidity(int quality, int validity)
+	{
+		return (quality & ~3) | ((validity >> 1) & 1) | ((validity & 1) << 1);
+	}
+	
+	// Decodes a bit-string: the number of unused bits, then the bits from the first one.
+	// Bit n of the bit-string is returned in bit n. At most 64 bits are read
+	static long decode(JBuffer payload, int offset, int length)
+	{
+		int bytes = length - 1;
+		
+		if ((bytes < 0) || (bytes > 8))
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Quality::decode Cannot read bit-string on more than 64 bits");
+		
+		if (bytes == 0)
+			return 0;
+		
+		long bits = 0;
+		
+		for (int position = 0; position < bytes; position++)
+			bits = (bits << 8) | payload.getUByte(offset + 1 + position);
+		
+		// The first bit is the most significant one
+		bits = Long.reverse(bits) >>> (64 - 8 * bytes);
+		
+		// We clear the unused bits
+		int usedBits = 8 * bytes - payload.getUByte(offset);
+		
+		if (usedBits < 64)
+			bits &= (1L << usedBits) - 1;
+		
+		return bits;
+	}
+	
+	// Encodes a bit-string with the given number of unused bits in its last byte
+	static void encode(JBuffer payload, int offset, int length, int unusedBits, long bits)
+	{
+		int bytes = length - 1;
+		
+		if ((bytes < 0) || (bytes > 8))
+			throw new UnsupportedOperationException("In IEC61850_GOOSE_Quality::encode Cannot write bit-string on more than 64 bits");
+		
+		payload.setUByte(offset, (bytes == 0) ? 0 : unusedBits);
+		
+		if (bytes == 0)
+			return;
+		
+		// The first bit is the most significant one
+		long reversed = Long.reverse(bits) >>> (64 - 8 * bytes);
+		
+		for (int position = bytes - 1; position >= 0; position--)
+		{
+			payload.setUByte(offset + 1 + position, (int) (reversed & 0xFF));
+			reversed >>>= 8;
+		}
+	}
+}
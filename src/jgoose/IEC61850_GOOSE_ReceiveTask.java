@@ -20,6 +20,9 @@
  * This class defined a task scheduler based on a watchdog. 
  * When the watchdog expires, a user defined function is called.
  * 
+ * The watchdog is a timer of the IEC61850_GOOSE_TimerWheel shared by all the receive tasks.
+ * Refreshing a running watchdog only moves its deadline.
+ * 
  * @author  Philippe Venne
  * @version 0.1
  *
@@ -29,37 +32,57 @@ package jgoose;
 
 import java.lang.System;
 
+import org.jnetpcap.packet.JPacket;
+
 public class IEC61850_GOOSE_ReceiveTask extends IEC61850_GOOSE_Task{
 	
 	String name;
-	IEC61850_WatchdogTask_Sleeper sleeper;
 	long delay;
 	
+	// How long the stream may stay silent, the MaxTime in delay or the timeAllowedToLive of each frame
+	IEC61850_GOOSE_SupervisionType supervision = IEC61850_GOOSE_SupervisionType.maxTime;
+	
+	// The wheel supervising the watchdog and the watchdog timer itself
+	IEC61850_GOOSE_TimerWheel wheel;
+	IEC61850_WatchdogTask_Timer timer = new IEC61850_WatchdogTask_Timer();
+	
 	IEC61850_GOOSE_TaskEventHandler watchdogEventHandler = null;
 	
+	// When set, the receiver keeps a private copy of the last received packet
+	// in goose_memoryPacket. Received packets live in recycled buffers otherwise.
+	boolean packetSnapshot = false;
+	
+	// Layout of the last fully decoded frame, relative to the GOOSE header.
+	// Retransmissions with the same layout are recognised without decoding the header.
+	// cached_length is -1 until a frame is decoded
+	int cached_length = -1;
+	int cached_goID_position;
+	int cached_timeAllowedToLive_position;
+	int cached_timeAllowedToLive_length;
+	int cached_stNum_position;
+	int cached_stNum_length;
+	int cached_sqNum_position;
+	int cached_sqNum_length;
+	
+	// Set when change tracking was enabled by setChangeTracking(), so it stays on without a change
+	// event handler
+	boolean changeTracking = false;
+	
+	// Number of frames handled by the retransmission fast path and by the full decode
+	long fastPathFrames = 0;
+	long fullDecodeFrames = 0;
+	
+	// Number of frames dropped because their data set could not be decoded, and the state number
+	// of the last one reported, so each state is only logged once
+	long rejectedFrames = 0;
+	long rejectedStNum = -1;
+	
 	// Defined in IEC61850_GOOSE_Task
 	//JMemoryPacket goose_memoryPacket;
 	//IEC61850_GOOSE_Frame goose_frame;
 	
 	IEC61850_GOOSE_ReceiveTask receiveTask = this;
 	
-	/**
-	 * 
-	 * This class is used to define a synchronized flag that is used for multi thread 
-	 * communications within the IEC61850_GOOSE_WatchdogTask class
-	 * 
-	 * @author  Philippe Venne
-	 * @version 0.1
-	 *
-	 */
-	class IEC61850_LockedFlag {
-		boolean flag;
-	}
-	
-	IEC61850_LockedFlag refresh_flag = new IEC61850_LockedFlag ();
-	IEC61850_LockedFlag cancel_flag = new IEC61850_LockedFlag ();
-	
-	
 	/**
 	 * 
 	 * This class is used to define the state machine of the IEC61850_GOOSE_WatchdogTask class
@@ -82,27 +105,30 @@ public class IEC61850_GOOSE_ReceiveTask extends IEC61850_GOOSE_Task{
 		stopped;
 	}
 	
-	WatchdogTask_State current_state;
+	volatile WatchdogTask_State current_state;
+	
+	// Guards the transitions of current_state
+	final Object stateLock = new Object();
 	
 	/**
 	 * Constructor of the IEC61850_GOOSE_WatchdogTask class
 	 * 
 	 * @param local_received_frame	The frame that is attached with this watchdog
 	 * @param name					Name of this watchdog
+	 * @param wheel					The timer wheel supervising this watchdog
 	 * @throws IEC61850_GOOSE_Exception 
 	 * 
 	 */
-	public IEC61850_GOOSE_ReceiveTask(IEC61850_GOOSE_Frame local_received_frame, String name) throws IEC61850_GOOSE_Exception
+	public IEC61850_GOOSE_ReceiveTask(IEC61850_GOOSE_Frame local_received_frame, String name,
+			IEC61850_GOOSE_TimerWheel wheel) throws IEC61850_GOOSE_Exception
 	{
 		this.name = name;
+		this.wheel = wheel;
 		goose_frame = local_received_frame;
 		
-		refresh_flag.flag = false;
-		cancel_flag.flag = false;
-		
 		current_state = WatchdogTask_State.not_started;
 		
-		//The goose_memoryPacket is not needed for received frames
+		//The goose_memoryPacket is only kept when packetSnapshot is set
 		goose_memoryPacket = null;
 		goose_header = null;
 	}
@@ -119,7 +145,7 @@ public class IEC61850_GOOSE_ReceiveTask extends IEC61850_GOOSE_Task{
 			delay = local_delay;
 			
 			// The watchdog starts in expired state
-			synchronized (current_state)
+			synchronized (stateLock)
 			{
 				current_state = WatchdogTask_State.expired;
 			}
@@ -135,32 +161,43 @@ public class IEC61850_GOOSE_ReceiveTask extends IEC61850_GOOSE_Task{
 	 * 
 	 */
 	public void refresh()
+	{
+		restart(delay);
+	}
+	
+	/**
+	 * Resets the watchdog timer for a received frame. With timeAllowedToLive supervision, the
+	 * watchdog expires once the timeAllowedToLive of the frame has elapsed. Frames without
+	 * a timeAllowedToLive are supervised with the MaxTime.
+	 * 
+	 * @param timeAllowedToLive	timeAllowedToLive of the received frame in milliseconds
+	 */
+	public void refresh(long timeAllowedToLive)
+	{
+		if ((supervision == IEC61850_GOOSE_SupervisionType.timeAllowedToLive) && (timeAllowedToLive > 0))
+			restart(timeAllowedToLive);
+		else
+			restart(delay);
+	}
+	
+	private void restart(long local_delay)
 	{
 		if (current_state == WatchdogTask_State.running)
 		{
-			// we notify its time to refresh the timer
-			synchronized (refresh_flag)
-			{
-				refresh_flag.flag = true;
-			}
-			
-			// we wakeup the sleeper thread
-			
-			synchronized (sleeper)
-			{
-				sleeper.notify();
-			}
+			// The wheel finds a later deadline when it reaches the previous one
+			wheel.rearm(timer, System.nanoTime() + local_delay * 1000000L);
 		}
 		else if (current_state == WatchdogTask_State.expired)
 		{
-			synchronized (current_state)
+			synchronized (stateLock)
 			{
-				current_state = WatchdogTask_State.running;
+				if (current_state == WatchdogTask_State.expired)
+				{
+					current_state = WatchdogTask_State.running;
+					
+					wheel.schedule(timer, System.nanoTime() + local_delay * 1000000L);
+				}
 			}
-			
-			// start a new sleeper thread
-			sleeper = new IEC61850_WatchdogTask_Sleeper();
-			sleeper.start();
 		}
 		else
 			System.err.printf("The watchdog not started or stopped, ignoring\n");
@@ -173,22 +210,119 @@ public class IEC61850_GOOSE_ReceiveTask extends IEC61850_GOOSE_Task{
 	 */
 	public void disable()
 	{
-		if (current_state != WatchdogTask_State.stopped)
+		synchronized (stateLock)
 		{
-			// we notify its time to refresh the timer
-			synchronized (cancel_flag)
+			if (current_state != WatchdogTask_State.stopped)
 			{
-				cancel_flag.flag = true;
+				wheel.cancel(timer);
+				
+				current_state = WatchdogTask_State.stopped;
 			}
+			else
+				System.err.printf("The watchdog is already stopped, ignoring\n");
+		}
+	}
+	
+	/**
+	 * Saves the position of the fields of a fully decoded frame of this stream
+	 * 
+	 * @param goose_header	Header bound to the decoded frame
+	 */
+	void cacheLayout(IEC61850_GOOSE_Header goose_header)
+	{
+		cached_length = goose_header.length();
+		cached_goID_position = goose_header.goIDOffset() / 8;
+		cached_timeAllowedToLive_position = goose_header.timeAllowedToLiveOffset() / 8;
+		cached_timeAllowedToLive_length = goose_header.timeAllowedToLiveLength();
+		cached_stNum_position = goose_header.stNumOffset() / 8;
+		cached_stNum_length = goose_header.stNumLength();
+		cached_sqNum_position = goose_header.sqNumOffset() / 8;
+		cached_sqNum_length = goose_header.sqNumLength();
+	}
+	
+	/**
+	 * Checks, with the cached layout, whether a received frame is a retransmission of the last
+	 * decoded state of this stream. Only the length, goID, timeAllowedToLive, stNum and sqNum
+	 * bytes are read. The timeAllowedToLive and sqNum of the frame are saved when it is a
+	 * retransmission.
+	 * 
+	 * @param packet	Received packet
+	 * @param offset	Offset of the GOOSE header in the packet
+	 * @param goID		goID of this stream
+	 * @return true if the frame has the cached layout and the current stNum
+	 */
+	boolean isRetransmission(JPacket packet, int offset, byte[] goID)
+	{
+		// The private copy of the packet requires the full decode
+		if ((cached_length == -1) || packetSnapshot)
+			return false;
+		
+		// The length field has to be in the packet
+		if (offset + 4 > packet.size())
+			return false;
+		
+		// JPacket uses the native byte order, so the bytes are assembled here
+		if (((packet.getUByte(offset + 2) << 8) | packet.getUByte(offset + 3)) != cached_length)
+			return false;
+		
+		// A frame cut by the capture may announce the cached length. All the fields read below are
+		// within the cached length, so they are in the packet if the whole frame is
+		if (offset + cached_length > packet.size())
+			return false;
+		
+		// Same goID at the same position
+		if (cached_goID_position == 0)
+		{
+			if (goID.length != 0)
+				return false;
+		}
+		else
+		{
+			if (packet.getUByte(offset + cached_goID_position + 1) != goID.length)
+				return false;
 			
-			// we wakeup the sleeper thread
-			synchronized (sleeper)
+			for (int position = 0; position < goID.length; position++)
 			{
-				sleeper.notify();
+				if (packet.getByte(offset + cached_goID_position + 2 + position) != goID[position])
+					return false;
 			}
 		}
-		else
-			System.err.printf("The watchdog is already stopped, ignoring\n");
+		
+		// Same timeAllowedToLive, stNum and sqNum tags and lengths at the same position
+		if ((packet.getUByte(offset + cached_timeAllowedToLive_position) != 0x81)
+				|| (packet.getUByte(offset + cached_timeAllowedToLive_position + 1) != cached_timeAllowedToLive_length)
+				|| (packet.getUByte(offset + cached_stNum_position) != 0x85) 
+				|| (packet.getUByte(offset + cached_stNum_position + 1) != cached_stNum_length)
+				|| (packet.getUByte(offset + cached_sqNum_position) != 0x86)
+				|| (packet.getUByte(offset + cached_sqNum_position + 1) != cached_sqNum_length))
+			return false;
+		
+		if (readUnsigned(packet, offset + cached_stNum_position + 2, cached_stNum_length) != goose_frame.stNum)
+			return false;
+		
+		goose_frame.sqNum = readUnsigned(packet, offset + cached_sqNum_position + 2, cached_sqNum_length);
+		goose_frame.timeAllowedToLive = readUnsigned(packet, offset + cached_timeAllowedToLive_position + 2, 
+				cached_timeAllowedToLive_length);
+		
+		return true;
+	}
+	
+	private static long readUnsigned(JPacket packet, int offset, int length)
+	{
+		long value = 0;
+		
+		for (int position = 0; position < length; position++)
+			value = (value << 8) | packet.getUByte(offset + position);
+		
+		return value;
+	}
+	
+	/**
+	 * @return A string containing the number of frames handled by each receive path
+	 */
+	public String getStat()
+	{
+		return "fastPath=" + fastPathFrames + ", fullDecode=" + fullDecodeFrames + ", rejected=" + rejectedFrames;
 	}
 	
 	/**
@@ -204,97 +338,38 @@ public class IEC61850_GOOSE_ReceiveTask extends IEC61850_GOOSE_Task{
 	
 	/**
 	 * 
-	 * This class is the core of the watchdog. It is the thread that manages the timer
-	 * and the state machine.
+	 * This class is the watchdog timer. It is called by the wheel thread once no frame
+	 * refreshed the watchdog for the delay.
 	 * 
 	 * @author  Philippe Venne
 	 * @version 0.1
 	 *
 	 */
-	class IEC61850_WatchdogTask_Sleeper extends Thread{
+	class IEC61850_WatchdogTask_Timer extends IEC61850_GOOSE_TimerWheel.Timer{
 		
 		@Override
-	    public void run() 
-	    {
-			while (! cancel_flag.flag)
+		protected void expired()
+		{
+			synchronized (stateLock)
 			{
-				// The thread waits until the delay is expired or it is notified
-				synchronized(sleeper)
-				{
-					try {
-						sleeper.wait(delay);
-					} catch (InterruptedException e) {
-
-						System.err.printf("Sleeping thread was interrupted\n");
-						e.printStackTrace();
-					}
-				}
-				
-				// The delay was expired or we were notified
-				
-				if ( refresh_flag.flag )
-				{
-					// we have to refresh the watchdog
-					synchronized (refresh_flag)
-					{
-						refresh_flag.flag = false;
-					}
-					
-					// Now we will go to sleep again
-				}
-				/*
-				else if (cancel_flag.flag)
-				{
-					synchronized (cancel_flag)
-					{
-						cancel_flag.flag = false;
-					}
-				}
-				*/
+				if (current_state != WatchdogTask_State.running)
+					return;
 				
-				// If we woke up and its not a cancel flag or a refresh flag,
-				// then the watchdog has expired
-				else if ( ! cancel_flag.flag)
+				// A frame may have refreshed the watchdog since the wheel read the deadline
+				if (deadline - System.nanoTime() > 0)
 				{
-					synchronized (current_state)
-					{
-						current_state = WatchdogTask_State.expired;
-					}
-					
-					if (watchdogEventHandler == null)
-						System.err.printf("Uninitialized watchdog event handler\n");
-					else
-						watchdogEventHandler.eventHandler(goose_frame, receiveTask);
-					
-					// Once the time has expired, we wait until we are cancelled or refreshed
-					synchronized(sleeper)
-					{
-						try {
-							sleeper.wait();
-						} catch (InterruptedException e) {
-
-							System.err.printf("Sleeping thread was interrupted\n");
-							e.printStackTrace();
-						}
-					}
-				}
-			}
-			
-			// We received a cancel flag
-			synchronized (current_state)
-			{
-				synchronized (cancel_flag)
-				{
-					cancel_flag.flag = false;
+					wheel.schedule(this, deadline);
+					return;
 				}
 				
-				current_state = WatchdogTask_State.stopped;
+				current_state = WatchdogTask_State.expired;
 			}
 			
-			//System.out.printf("End of sleeper thread. \n");
-
-	    }
-		
+			if (watchdogEventHandler == null)
+				System.err.printf("Uninitialized watchdog event handler\n");
+			else
+				watchdogEventHandler.eventHandler(goose_frame, receiveTask);
+		}
 	}
 	
 }
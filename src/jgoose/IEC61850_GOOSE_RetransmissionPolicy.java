@@ -0,0 +1,41 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This interface defines the delays between the retransmissions of a GOOSE message
+ * that follow the transmission of new values.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+public interface IEC61850_GOOSE_RetransmissionPolicy 
+{
+	/**
+	 * Returns the delay before a retransmission, in milliseconds
+	 * 
+	 * @param retransmission	0 for the first retransmission after new values, then 1, 2, ...
+	 * @param minimum_delay		MinTime of the control block in milliseconds
+	 * @param maximum_delay		Maximum delay between two retransmissions in milliseconds
+	 * @return The delay since the previous transmission
+	 */
+	long delay(int retransmission, long minimum_delay, long maximum_delay);
+}
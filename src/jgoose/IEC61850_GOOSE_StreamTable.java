@@ -0,0 +1,210 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class is used to find the receive task of a received GOOSE frame without
+ * reading the goID into a String. Streams are looked up by their APPID first, then
+ * by a hash of the goID bytes that is compared to the registered goID in the packet itself.
+ * A frame with an unknown APPID is rejected after reading 2 bytes.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.nio.charset.StandardCharsets;
+
+import org.jnetpcap.packet.JPacket;
+
+public class IEC61850_GOOSE_StreamTable
+{
+	/**
+	 *
+	 * This class holds one registered stream. Streams sharing the same APPID are chained.
+	 *
+	 * @author  Philippe Venne
+	 * @version 0.1
+	 *
+	 */
+	class IEC61850_GOOSE_Stream
+	{
+		final byte[] goID;
+		final int goIDHash;
+		final IEC61850_GOOSE_ReceiveTask receiveTask;
+		final IEC61850_GOOSE_Stream next;
+
+		IEC61850_GOOSE_Stream(byte[] goID, IEC61850_GOOSE_ReceiveTask receiveTask, IEC61850_GOOSE_Stream next)
+		{
+			this.goID = goID;
+			this.goIDHash = hash(goID);
+			this.receiveTask = receiveTask;
+			this.next = next;
+		}
+	}
+
+	// Open addressing table, the APPID is the key
+	// appID can be in the range of 0x0000 to 0xFFFF, -1 marks an empty slot
+	private int[] appIDs;
+	private IEC61850_GOOSE_Stream[] streams;
+	private int size = 0;
+
+	public IEC61850_GOOSE_StreamTable()
+	{
+		allocate(16);
+	}
+
+	/**
+	 * Hash of the goID bytes. IEC61850_GOOSE_Header.goIDHash() computes the same
+	 * value directly from a received packet.
+	 */
+	static int hash(byte[] goID)
+	{
+		int hash = 0;
+
+		for (int position = 0; position < goID.length; position++)
+			hash = 31 * hash + (goID[position] & 0xFF);
+
+		return hash;
+	}
+
+	/**
+	 * Registers a receive stream
+	 *
+	 * @param appID			APPID of the stream as found in the GSE block
+	 * @param goID			goID of the stream
+	 * @param receiveTask	Receive task called when a frame of this stream is received
+	 */
+	public void put(int appID, String goID, IEC61850_GOOSE_ReceiveTask receiveTask)
+	{
+		// We keep the table at most half full
+		if ((size + 1) * 2 > appIDs.length)
+			rehash(appIDs.length * 2);
+
+		int slot = slot(appID);
+
+		if (appIDs[slot] == -1)
+		{
+			appIDs[slot] = appID;
+			size++;
+		}
+
+		streams[slot] = new IEC61850_GOOSE_Stream(goID.getBytes(StandardCharsets.US_ASCII), receiveTask, streams[slot]);
+	}
+
+	/**
+	 * Tells if streams are registered with an APPID
+	 *
+	 * @param appID		APPID of a received frame
+	 * @return true if at least one stream uses this APPID
+	 */
+	public boolean contains(int appID)
+	{
+		return appIDs[slot(appID)] != -1;
+	}
+
+	/**
+	 * Finds the receive task of a received frame. No object is allocated.
+	 *
+	 * @param goose_header	Header bound to the received packet
+	 * @return The receive task, or null if the stream is not registered
+	 */
+	public IEC61850_GOOSE_ReceiveTask get(IEC61850_GOOSE_Header goose_header)
+	{
+		int slot = slot(goose_header.appID());
+
+		if (appIDs[slot] == -1)
+			return null;
+
+		int goIDHash = goose_header.goIDHash();
+
+		for (IEC61850_GOOSE_Stream stream = streams[slot]; stream != null; stream = stream.next)
+		{
+			if ((stream.goIDHash == goIDHash) && goose_header.goIDEquals(stream.goID))
+				return stream.receiveTask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Finds the receive task of a received frame that retransmits the last decoded state of its
+	 * stream. Only the few bytes compared with the cached layout of the stream are read,
+	 * the header is not decoded.
+	 *
+	 * @param packet	Received packet
+	 * @param offset	Offset of the GOOSE header in the packet
+	 * @return The receive task, or null if the frame has to be decoded
+	 */
+	public IEC61850_GOOSE_ReceiveTask getRetransmission(JPacket packet, int offset)
+	{
+		// JPacket uses the native byte order, so the bytes are assembled here
+		int slot = slot((packet.getUByte(offset) << 8) | packet.getUByte(offset + 1));
+
+		if (appIDs[slot] == -1)
+			return null;
+
+		for (IEC61850_GOOSE_Stream stream = streams[slot]; stream != null; stream = stream.next)
+		{
+			if (stream.receiveTask.isRetransmission(packet, offset, stream.goID))
+				return stream.receiveTask;
+		}
+
+		return null;
+	}
+
+	// Returns the slot holding the appID, or the empty slot where it belongs
+	private int slot(int appID)
+	{
+		int mask = appIDs.length - 1;
+		int slot = (appID * 0x9E3779B1 >>> 16) & mask;
+
+		while ((appIDs[slot] != -1) && (appIDs[slot] != appID))
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+	private void allocate(int capacity)
+	{
+		appIDs = new int[capacity];
+		streams = new IEC61850_GOOSE_Stream[capacity];
+
+		for (int slot = 0; slot < capacity; slot++)
+			appIDs[slot] = -1;
+	}
+
+	private void rehash(int capacity)
+	{
+		int[] old_appIDs = appIDs;
+		IEC61850_GOOSE_Stream[] old_streams = streams;
+
+		allocate(capacity);
+
+		for (int position = 0; position < old_appIDs.length; position++)
+		{
+			if (old_appIDs[position] != -1)
+			{
+				int slot = slot(old_appIDs[position]);
+				appIDs[slot] = old_appIDs[position];
+				streams[slot] = old_streams[position];
+			}
+		}
+	}
+}
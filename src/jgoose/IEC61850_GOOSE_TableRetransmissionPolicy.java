@@ -0,0 +1,60 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This class defines a retransmission curve given as a table of delays. The last delay of the
+ * table is used for all the following retransmissions. A fixed T1/T2 pair is a table of T1
+ * repeated as often as required followed by T2.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+public class IEC61850_GOOSE_TableRetransmissionPolicy implements IEC61850_GOOSE_RetransmissionPolicy
+{
+	private final long[] delays;
+	
+	/**
+	 * Constructor of the IEC61850_GOOSE_TableRetransmissionPolicy class
+	 * 
+	 * @param delays	Delays of the successive retransmissions in milliseconds
+	 * @throws IEC61850_GOOSE_Exception 
+	 */
+	public IEC61850_GOOSE_TableRetransmissionPolicy(long... delays) throws IEC61850_GOOSE_Exception
+	{
+		if (delays.length == 0)
+			throw new IEC61850_GOOSE_Exception("Empty retransmission table");
+		
+		for (long delay : delays)
+		{
+			if (delay <= 0)
+				throw new IEC61850_GOOSE_Exception("Retransmission delays must be positive");
+		}
+		
+		this.delays = delays.clone();
+	}
+	
+	@Override
+	public long delay(int retransmission, long minimum_delay, long maximum_delay)
+	{
+		return delays[Math.min(retransmission, delays.length - 1)];
+	}
+}
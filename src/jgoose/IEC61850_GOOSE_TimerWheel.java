@@ -0,0 +1,374 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class defines a hashed timing wheel. A single thread supervises any number of timers.
+ * Each timer sits in the bucket of the tick in which its deadline falls.
+ *
+ * Postponing a timer only moves its deadline. When the wheel reaches the bucket of a timer whose
+ * deadline has moved, it puts the timer in the bucket of its new deadline instead of firing it.
+ * Deadlines further away than one turn of the wheel are handled the same way. A timer brought
+ * forward is handed to the wheel thread again, to be moved to an earlier bucket.
+ *
+ * A timer scheduled with a deadline that has already passed wakes the wheel thread and fires
+ * right away, so the wheel can also serve as an event loop. A timer scheduled several times
+ * before it fires is handed over once, and fires once at its last deadline.
+ *
+ * Each arming of a timer fires at most once. The wheel decides to fire a timer and disarms it
+ * under the lock of the timer, which schedule(), rearm() and cancel() also take, so a timer
+ * armed again while it fires is filed for its new deadline. expired() is called outside of
+ * the lock.
+ *
+ * The timers fire on the wheel thread, so their expired() method should return quickly.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+public class IEC61850_GOOSE_TimerWheel
+{
+	/**
+	 *
+	 * This class is a timer supervised by the wheel. Subclasses define what happens when
+	 * its deadline passes.
+	 *
+	 * @author  Philippe Venne
+	 * @version 0.1
+	 *
+	 */
+	public static abstract class Timer
+	{
+		// Guards deadline, armed and queued
+		final Object lock = new Object();
+
+		// System.nanoTime() value after which the timer expires
+		long deadline;
+
+		// Set from the time the timer is scheduled until it fires or is cancelled
+		boolean armed = false;
+
+		// Set while the timer waits in the scheduled timers, so it is only queued once
+		boolean queued = false;
+
+		// Bucket links, only used by the wheel thread. bucket is -1 when the timer is not in a bucket
+		Timer next = null;
+		Timer previous = null;
+		int bucket = -1;
+
+		/**
+		 * Called by the wheel thread once the deadline has passed
+		 */
+		protected abstract void expired();
+	}
+
+	private final Timer[] buckets;
+	private final int mask;
+	private final long tickNanos;
+
+	// Timers scheduled by other threads, put in their bucket by the wheel thread
+	private final ConcurrentLinkedQueue<Timer> scheduledTimers = new ConcurrentLinkedQueue<Timer>();
+
+	private volatile Thread wheelThread = null;
+	private volatile boolean running = false;
+
+	// Creation time of the wheel and number of ticks processed since
+	private final long startNanos = System.nanoTime();
+	private long currentTick;
+
+	/**
+	 * Constructor of the IEC61850_GOOSE_TimerWheel class
+	 *
+	 * @param bucketCount	Number of buckets, rounded up to a power of 2
+	 * @param tickMillis	Duration of one tick, the resolution of the timers
+	 */
+	public IEC61850_GOOSE_TimerWheel(int bucketCount, long tickMillis)
+	{
+		int size = Integer.highestOneBit(Math.max(bucketCount, 2) - 1) << 1;
+
+		buckets = new Timer[size];
+		mask = size - 1;
+		tickNanos = tickMillis * 1000000L;
+	}
+
+	/**
+	 * Starts the wheel thread
+	 */
+	public synchronized void start()
+	{
+		if (wheelThread == null)
+		{
+			running = true;
+			wheelThread = new Thread(new IEC61850_GOOSE_TimerWheel_Runner());
+			wheelThread.setDaemon(true);
+			wheelThread.start();
+		}
+	}
+
+	/**
+	 * Stops the wheel thread. The timers do not fire until the wheel is started again.
+	 *
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws InterruptedException
+	{
+		if (wheelThread != null)
+		{
+			running = false;
+			LockSupport.unpark(wheelThread);
+			wheelThread.join();
+			wheelThread = null;
+		}
+	}
+
+	/**
+	 * Adds a timer to the wheel. May be called from any thread.
+	 *
+	 * @param timer		The timer
+	 * @param deadline	System.nanoTime() value after which the timer expires
+	 */
+	public void schedule(Timer timer, long deadline)
+	{
+		synchronized (timer.lock)
+		{
+			timer.deadline = deadline;
+			timer.armed = true;
+
+			// A timer already queued is filed with its latest deadline when the wheel polls it
+			if (!timer.queued)
+			{
+				timer.queued = true;
+				scheduledTimers.add(timer);
+			}
+		}
+
+		if (deadline - System.nanoTime() <= 0)
+			wakeup();
+	}
+
+	/**
+	 * Moves the deadline of a scheduled timer. Does nothing once the timer has fired or was
+	 * cancelled. May be called from any thread.
+	 *
+	 * @param timer		The timer
+	 * @param deadline	New System.nanoTime() value after which the timer expires
+	 */
+	public void rearm(Timer timer, long deadline)
+	{
+		synchronized (timer.lock)
+		{
+			if (!timer.armed)
+				return;
+
+			long previous = timer.deadline;
+
+			timer.deadline = deadline;
+
+			// The wheel would only find an earlier deadline at the bucket of the previous one
+			if ((deadline - previous >= 0) || timer.queued)
+				return;
+
+			timer.queued = true;
+			scheduledTimers.add(timer);
+		}
+
+		if (deadline - System.nanoTime() <= 0)
+			wakeup();
+	}
+
+	/**
+	 * Removes a timer from the wheel. It is unlinked the next time the wheel reaches it.
+	 * May be called from any thread.
+	 *
+	 * @param timer		The timer
+	 * @return			false if the timer was not armed: it already fired, is firing or was cancelled
+	 */
+	public boolean cancel(Timer timer)
+	{
+		synchronized (timer.lock)
+		{
+			boolean armed = timer.armed;
+
+			timer.armed = false;
+
+			return armed;
+		}
+	}
+
+	private void wakeup()
+	{
+		Thread thread = wheelThread;
+
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	// Calls a timer the wheel thread has disarmed
+	private void fire(Timer timer)
+	{
+		try
+		{
+			timer.expired();
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	// Puts a timer in the bucket of its deadline, at least one tick ahead
+	private void link(Timer timer)
+	{
+		long tick = (timer.deadline - startNanos) / tickNanos;
+
+		if (tick <= currentTick)
+			tick = currentTick + 1;
+
+		int bucket = (int) (tick & mask);
+
+		timer.bucket = bucket;
+		timer.previous = null;
+		timer.next = buckets[bucket];
+
+		if (timer.next != null)
+			timer.next.previous = timer;
+
+		buckets[bucket] = timer;
+	}
+
+	private void unlink(Timer timer)
+	{
+		if (timer.bucket == -1)
+			return;
+
+		if (timer.previous != null)
+			timer.previous.next = timer.next;
+		else
+			buckets[timer.bucket] = timer.next;
+
+		if (timer.next != null)
+			timer.next.previous = timer.previous;
+
+		timer.next = null;
+		timer.previous = null;
+		timer.bucket = -1;
+	}
+
+	/**
+	 *
+	 * This class is the wheel thread. Every time it wakes up, it files the newly scheduled timers
+	 * and fires the ones already due. Every tick, it walks the bucket of the tick.
+	 *
+	 * @author  Philippe Venne
+	 * @version 0.1
+	 *
+	 */
+	class IEC61850_GOOSE_TimerWheel_Runner implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			currentTick = (System.nanoTime() - startNanos) / tickNanos;
+
+			while (running)
+			{
+				// We file the timers scheduled or brought forward since we last woke up
+				Timer timer;
+				long now = System.nanoTime();
+
+				while ((timer = scheduledTimers.poll()) != null)
+				{
+					boolean due = false;
+
+					synchronized (timer.lock)
+					{
+						// Timers scheduled again from now on are queued again
+						timer.queued = false;
+						unlink(timer);
+
+						if (timer.armed)
+						{
+							if (timer.deadline - now <= 0)
+							{
+								timer.armed = false;
+								due = true;
+							}
+							else
+								link(timer);
+						}
+					}
+
+					if (due)
+						fire(timer);
+				}
+
+				// We wait for the next tick
+				long wait = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+
+				if (wait > 0)
+				{
+					LockSupport.parkNanos(this, wait);
+					continue;
+				}
+
+				currentTick++;
+
+				// We walk the bucket of the current tick
+				now = System.nanoTime();
+				timer = buckets[(int) (currentTick & mask)];
+
+				while (timer != null)
+				{
+					Timer next = timer.next;
+					boolean due = false;
+
+					synchronized (timer.lock)
+					{
+						// A cancelled timer is dropped. A timer scheduled or brought forward is
+						// filed when polled
+						unlink(timer);
+
+						if (timer.armed && !timer.queued)
+						{
+							if (timer.deadline - now <= 0)
+							{
+								timer.armed = false;
+								due = true;
+							}
+							else
+							{
+								// The timer was rearmed or is more than one turn away
+								link(timer);
+							}
+						}
+					}
+
+					if (due)
+						fire(timer);
+
+					timer = next;
+				}
+			}
+		}
+	}
+}
@@ -19,9 +19,12 @@
  * 
  * This class defines a task used to transmit an ICE61850 frame. 
  * The frame to transmit is associated with this task.
- * It extends an IEC61850_GOOSE_RescheduleTask.
  * It automatically transmits the frame after a maximum delay or when triggered.
  * 
+ * The state machine of every transmit task is driven by a timer of an IEC61850_GOOSE_TimerWheel
+ * shared by all the transmit tasks. The timer fires at the next retransmission time, or right
+ * away when the data has changed or the task is disabled.
+ * 
  * @author  Philippe Venne
  * @version 0.1
  *
@@ -29,10 +32,6 @@
 
 package jgoose;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.Date;
-
 //import org.jnetpcap.packet.JPacket;
 //import com.gremwell.jnetbridge.PcapPort;
 
@@ -40,7 +39,6 @@ public class IEC61850_GOOSE_TransmitTask extends IEC61850_GOOSE_Task
 {
 	
 	//String name;
-	//protected Timer timer;
 
 	//final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("HH:mm:ss.SSS");
 	
@@ -50,8 +48,9 @@ public class IEC61850_GOOSE_TransmitTask extends IEC61850_GOOSE_Task
 	
 	IEC61850_GOOSE_TransmitTask transmitTask;
 
-	// This is the actual thread used to transmit
-	IEC61850_GOOSE_TransmitTask_Transmitter transmitter;
+	// The wheel running the state machine and the timer driving it
+	IEC61850_GOOSE_TimerWheel wheel;
+	IEC61850_GOOSE_TransmitTask_Timer transmitter = new IEC61850_GOOSE_TransmitTask_Timer();
 	
 	IEC61850_GOOSE_TaskEventHandler sendvalues_EventHandler = null;
 	IEC61850_GOOSE_TaskEventHandler retransmit_EventHandler = null;
@@ -59,15 +58,24 @@ public class IEC61850_GOOSE_TransmitTask extends IEC61850_GOOSE_Task
 	int minimum_delay = 0;
 	int maximum_delay = 0;
 	
-	class IEC61850_LockedFlag {
-		boolean flag;
-	}
+	// Delays between the retransmissions that follow new values
+	IEC61850_GOOSE_RetransmissionPolicy retransmissionPolicy = new IEC61850_GOOSE_LinearRetransmissionPolicy();
+	
+	// When set, triggered new values are sent from the calling thread, straight to the port
+	boolean directSend = false;
+	
+	// This lock protects the state machine and the packet of this task
+	final Object stateLock = new Object();
 	
 	// This flag is used to notify the transmitter its time to stop
-	IEC61850_LockedFlag cancel_flag = new IEC61850_LockedFlag ();
+	boolean cancel_flag = false;
 	
 	// This flag is used to notify the transmitter data has changed
-	IEC61850_LockedFlag dataHasChanged_flag = new IEC61850_LockedFlag ();
+	boolean dataHasChanged_flag = false;
+	
+	// System.nanoTime() of the last transmission and number of retransmissions since the last new values
+	long last_transmitter_execution;
+	int  retransmission_number = 0;
 	
 	// We define the TransmitTask state machine See 61850-8-1/2011 Figure 10
 	public enum Transmitter_State
@@ -89,19 +97,17 @@ public class IEC61850_GOOSE_TransmitTask extends IEC61850_GOOSE_Task
 	
 	
 	public IEC61850_GOOSE_TransmitTask(IEC61850_GOOSE_Frame transmit_frame, 
-			int minimum_delay, int maximum_delay) throws IEC61850_GOOSE_Exception
+			int minimum_delay, int maximum_delay, IEC61850_GOOSE_TimerWheel wheel) throws IEC61850_GOOSE_Exception
 	{	
 		transmitTask = this;
 		
 		// The initial state is non_existent
 		current_state = Transmitter_State.non_existent;
 		
-		cancel_flag.flag = false;
-		dataHasChanged_flag.flag = false;
-		
 		this.goose_frame = transmit_frame;
 		this.minimum_delay = minimum_delay;
 		this.maximum_delay = maximum_delay;
+		this.wheel = wheel;
 		
 		transmit_frame.makeNewPacket(this);
 	}
@@ -109,67 +115,90 @@ public class IEC61850_GOOSE_TransmitTask extends IEC61850_GOOSE_Task
 	// The method is used to start the transmission. It changes the state to send_values
 	public  void enable() throws  InterruptedException, IEC61850_GOOSE_Exception
 	{
-		if (current_state == Transmitter_State.non_existent)
+		synchronized (stateLock)
 		{
-			
-			// When a Transmit task is enabled, it triggers sending the first values
-			current_state = Transmitter_State.send_values;
-			
-			// We start the scheduler task. It goes in wait state right away
-			transmitter = new  IEC61850_GOOSE_TransmitTask_Transmitter();
-			transmitter.start();
-			
-		}
-
-		else
-		{
-			throw new IEC61850_GOOSE_Exception("The task is already started. Ignored");
+			if (current_state == Transmitter_State.non_existent)
+			{
+				// When a Transmit task is enabled, it triggers sending the first values
+				current_state = Transmitter_State.send_values;
+				
+				wheel.schedule(transmitter, System.nanoTime());
+			}
+			else
+			{
+				throw new IEC61850_GOOSE_Exception("The task is already started. Ignored");
+			}
 		}
 	}
 	
 	// The method is used to stop the transmission.
 	public void disable() throws IEC61850_GOOSE_Exception
 	{
-		if (current_state != Transmitter_State.non_existent)
+		synchronized (stateLock)
 		{
-			// we notify its time to refresh the timer
-			synchronized (cancel_flag)
+			if (current_state != Transmitter_State.non_existent)
 			{
-				cancel_flag.flag = true;
-			}
-			
-			// we wakeup the sleeper thread
-			synchronized (transmitter)
-			{
-				transmitter.notify();
+				// we notify its time to stop and wake up the transmitter
+				cancel_flag = true;
+				
+				wheel.schedule(transmitter, System.nanoTime());
 			}
+			else
+				throw new IEC61850_GOOSE_Exception("The transmitter is already disabled, ignoring\n");
 		}
-		else
-			throw new IEC61850_GOOSE_Exception("The transmitter is already disabled, ignoring\n");
-		
 	}
 	
 	// This method is used to notify the Transmit task that data has been changed since
 	// the last transmission.
 	public void dataHasBeenChanged() throws IEC61850_GOOSE_Exception
 	{
-		if (current_state != Transmitter_State.non_existent)
+		synchronized (stateLock)
 		{
-			// we notify its time to refresh the timer
-			synchronized (dataHasChanged_flag)
+			if (current_state != Transmitter_State.non_existent)
 			{
-				dataHasChanged_flag.flag = true;
+				// we notify the data has changed and wake up the transmitter
+				dataHasChanged_flag = true;
+				
+				wheel.schedule(transmitter, System.nanoTime());
 			}
+			else
+				throw new IEC61850_GOOSE_Exception("The transmitter not enabled, ignoring\n");
+		}
+	}
+	
+	// This method sends new values from the calling thread instead of the wheel thread.
+	// It returns false if the values could not be sent now, because the task is not waiting
+	// for a retransmission or because the last transmission is more recent than the minimum delay.
+	// The caller then leaves the new values to the wheel thread with dataHasBeenChanged().
+	boolean sendValuesNow()
+	{
+		synchronized (stateLock)
+		{
+			if ((current_state != Transmitter_State.retransmit_pending) || cancel_flag)
+				return false;
 			
-			// we wakeup the sleeper thread
-			synchronized (transmitter)
+			long current_time = System.nanoTime();
+			
+			if((current_time - last_transmitter_execution) < minimum_delay * 1000000L)
+				return false;
+			
+			dataHasChanged_flag = false;
+			
+			if (sendvalues_EventHandler == null)
+				System.err.printf("Uninitialized sendvalues event handler\n");
+			
+			else
 			{
-				transmitter.notify();
+				last_transmitter_execution = current_time;
+				sendvalues_EventHandler.eventHandler(goose_frame, transmitTask);
 			}
 			
+			// We restart the retransmissions like the wheel thread does after sending new values
+			retransmission_number = 0;
+			wheel.schedule(transmitter, current_time + nextRetransmissionDelay() * 1000000L);
+			
+			return true;
 		}
-		else
-			throw new IEC61850_GOOSE_Exception("The transmitter not enabled, ignoring\n");
 	}
 	
 	// This Event Handler is called when transmitting new data for the first time 
@@ -184,279 +213,112 @@ public class IEC61850_GOOSE_TransmitTask extends IEC61850_GOOSE_Task
 		retransmit_EventHandler = local_eventHandler;
 	}
 	
-	
-	// This class implements the transmitter task
-	class IEC61850_GOOSE_TransmitTask_Transmitter extends Thread
+	// This method returns the delay before the next retransmission, in milliseconds
+	private long nextRetransmissionDelay()
 	{
-		Date last_transmitter_execution;
-		int  retransmission_number;
-		
-		boolean running;
+		long delay = retransmissionPolicy.delay(retransmission_number, minimum_delay, maximum_delay);
 		
-		IEC61850_GOOSE_SchedulerTask retransmit_scheduler;
-		
-		public IEC61850_GOOSE_TransmitTask_Transmitter()
-		{
-			retransmit_scheduler = new IEC61850_GOOSE_SchedulerTask();
-			retransmission_number = 0;
-			running = true;
-		}
+		if (retransmission_number < Integer.MAX_VALUE)
+			retransmission_number++;
 		
+		return delay;
+	}
+	
+	// This class implements the transmitter. It is called by the wheel thread at the
+	// next retransmission time, or right away when the task was notified.
+	class IEC61850_GOOSE_TransmitTask_Timer extends IEC61850_GOOSE_TimerWheel.Timer
+	{
 		@Override
-	    public void run()
-	    {
-			// We have to create an instance of the GOOSE header for binding to work
-	        //@SuppressWarnings("unused")
-	        //IEC61850_GOOSE_Header dummy_goose_header = new IEC61850_GOOSE_Header();
-			
-	        boolean time_to_sleep = false;
-	        
-			while (running)
-			{	
-				synchronized (current_state)
+		protected void expired()
+		{
+			synchronized (stateLock)
+			{
+				// If we were asked to disable, we stop
+				if(cancel_flag)
 				{
-					switch(current_state)
-					{
-						case send_values:
-							
-							// We call the proper event handler
-							if (sendvalues_EventHandler == null)
-								System.err.printf("Uninitialized sendvalues event handler\n");
-							
-							else
-							{
-								last_transmitter_execution = new Date();
-								sendvalues_EventHandler.eventHandler(goose_frame, transmitTask);
-							}
-							
-							current_state = Transmitter_State.retransmit_pending;
-							
-							// we reset the retransmission number
-							retransmission_number = 1;
-							
-							// We start the scheduler here
-							// The scheduler will notify the transmitter task to retransmit
-							// The first time, the delay is divided by 5 according to 61850-8-1/2011 18.1.2.5.1
-							retransmit_scheduler.start(maximum_delay /5);
-							
-							break;
-							
-						case retransmit_pending:
-							
-							// Normally, it is the retransmit_scheduler that changes the state to retransmit
-							
-							// If we were asked to disable, we stop
-							if(cancel_flag.flag)
-							{
-								synchronized(cancel_flag)
-								{
-									cancel_flag.flag = false;
-								}
-								
-								// We turn off the scheduler and cancel any task scheduled
-								retransmit_scheduler.terminate();
-								
-								current_state = Transmitter_State.non_existent;
-								running = false;
-							}
-							
-							// New data is received
-							else if(dataHasChanged_flag.flag)
-							{
-								Date current_time = new Date();
-								
-								if((current_time.getTime() - last_transmitter_execution.getTime()) < minimum_delay)
-								{
-									// Its too early to send values. We have to wait
-									
-									// Stop the next retransmission
-									retransmit_scheduler.cancel();
-									
-									// Schedule the next time we wakeup at the right time
-									retransmit_scheduler.start(minimum_delay - (current_time.getTime() - last_transmitter_execution.getTime()));
-									
-								}
-								else
-								{
-									synchronized(dataHasChanged_flag)
-									{
-										dataHasChanged_flag.flag = false;
-									}
-									
-									// We turn off the scheduler and cancel any task scheduled
-									retransmit_scheduler.cancel();
-									
-									current_state = Transmitter_State.send_values;
-								}
-								
-							}
-							else
-							{	
-								time_to_sleep = true;
-								
-								/*// The thread waits until an event wakes up the thread
-								synchronized(this)
-								{
-									try 
-									{
-										this.wait();
-										
-									} catch (InterruptedException e) {
-		
-										System.err.printf("Scheduler thread was interrupted\n");
-										e.printStackTrace();
-									}
-								}*/
-							}
-							
-							break;
-							
-						case retransmit:
-							
-							// We call the proper event handler
-							if (retransmit_EventHandler == null)
-								System.err.printf("Uninitialized retransmit event handler\n");
-							
-							else
-							{
-								// We start by scheduling the next execution
-								// increase transmission time according to 61850-8-1/2011 18.1.2.5.1
-								
-								if ( retransmission_number > 3) // 4
-									retransmit_scheduler.start(maximum_delay);
-								
-								else if (retransmission_number < 2) // 0,1
-								{
-									retransmit_scheduler.start(maximum_delay /5);
-									retransmission_number++;
-								}
-								else if (retransmission_number == 2)
-								{
-									retransmit_scheduler.start(maximum_delay * 2/5);
-									retransmission_number++;
-								}
-								else if (retransmission_number == 3)
-								{
-									retransmit_scheduler.start(maximum_delay * 3/5);
-									retransmission_number++;
-								}	
-								
-								last_transmitter_execution = new Date();
-								
-								// We call the event handler that does the actual retransmission
-								retransmit_EventHandler.eventHandler(goose_frame, transmitTask);
-
-								current_state = Transmitter_State.retransmit_pending;
-							}
-							
-							break;
-							
-					} // switch(current_state)
+					cancel_flag = false;
+					dataHasChanged_flag = false;
 					
-				} // synchronized (current_state)
+					current_state = Transmitter_State.non_existent;
+					return;
+				}
+				
+				long current_time = System.nanoTime();
 				
-				if(time_to_sleep)
+				if (current_state == Transmitter_State.retransmit_pending)
 				{
-					// The thread waits until an event wakes up the thread
-					synchronized(this)
+					// New data is received
+					if(dataHasChanged_flag)
 					{
-						try 
+						if((current_time - last_transmitter_execution) < minimum_delay * 1000000L)
 						{
-							this.wait();
-							
-						} catch (InterruptedException e) {
-	
-							System.err.printf("Scheduler thread was interrupted\n");
-							e.printStackTrace();
+							// Its too early to send values. We wake up at the right time
+							wheel.schedule(this, last_transmitter_execution + minimum_delay * 1000000L);
+							return;
 						}
+						
+						dataHasChanged_flag = false;
+						
+						current_state = Transmitter_State.send_values;
 					}
-					
-					time_to_sleep = false;
+					// Otherwise it is time to retransmit
+					else
+						current_state = Transmitter_State.retransmit;
 				}
 				
-			}
-	    }
-	}
-	
-	// This class implements the scheduler of the transmitter task
-	class IEC61850_GOOSE_SchedulerTask
-	{
-		String name;
-		protected Timer timer;
-		
-		public IEC61850_GOOSE_SchedulerTask()
-		{
-			timer = new Timer();
-		}
-		
-		class IEC61850_WakeupTask extends TimerTask
-		{
-		
-			// The run method is called when the timer expires
-			@Override
-		    public void run() 
-		    {
-				synchronized (current_state)
+				switch(current_state)
 				{
-				
-					// If the current state is send_values or retransmit, we do nothing. The system will automatically retransmit		
-					if (current_state == Transmitter_State.retransmit_pending )	
-					{
-						// If the dataHasChanged_flag is not set and there is no cancel request, we go re retransmission
-						if((! dataHasChanged_flag.flag) && (! cancel_flag.flag))
-						{
-							// We change the current state to retransmit
-							synchronized (current_state)
-							{
-								current_state = Transmitter_State.retransmit;
-							}
+					case send_values:
+						
+						// We call the proper event handler
+						if (sendvalues_EventHandler == null)
+							System.err.printf("Uninitialized sendvalues event handler\n");
 						
-							// we notify the scheduler thread
-							synchronized (transmitter)
-							{
-								transmitter.notify();
-							}
+						else
+						{
+							last_transmitter_execution = current_time;
+							sendvalues_EventHandler.eventHandler(goose_frame, transmitTask);
 						}
 						
-						// If the dataHasChanged_flag is set and there is no cancel request
-						else if( dataHasChanged_flag.flag && (! cancel_flag.flag))
+						current_state = Transmitter_State.retransmit_pending;
+						
+						// we reset the retransmission number
+						retransmission_number = 0;
+						
+						// The retransmission policy gives the delay before the first retransmission
+						wheel.schedule(this, current_time + nextRetransmissionDelay() * 1000000L);
+						
+						break;
+						
+					case retransmit:
+						
+						// We start by scheduling the next execution, even without a handler
+						wheel.schedule(this, current_time + nextRetransmissionDelay() * 1000000L);
+						
+						// We call the proper event handler
+						if (retransmit_EventHandler == null)
+							System.err.printf("Uninitialized retransmit event handler\n");
+						
+						else
 						{
-							// we notify the scheduler thread
-							synchronized (transmitter)
-							{
-								transmitter.notify();
-							}
+							last_transmitter_execution = current_time;
+							
+							// We call the event handler that does the actual retransmission
+							retransmit_EventHandler.eventHandler(goose_frame, transmitTask);
 						}
 						
+						current_state = Transmitter_State.retransmit_pending;
 						
-					}
-					else if (current_state == Transmitter_State.non_existent )
-					{
-						System.err.printf("Time to retransmit, but current state is non_existent. Something is Really wrong!\n");
-					}
-				}
-		
-		    }
-		}
-		
-		IEC61850_WakeupTask currentTask;
-		
-		public void start(long period){
-			
-			currentTask = new IEC61850_WakeupTask();
-			
-			// simplest code
-			timer.schedule(currentTask, period);
-		}
-		
-		public void terminate()
-		{
-			timer.cancel();
-		}
-		
-		public void cancel()
-		{
-			currentTask.cancel();
+						break;
+						
+					default:
+						
+						System.err.printf("Time to transmit, but current state is %s. Something is Really wrong!\n", current_state);
+						break;
+						
+				} // switch(current_state)
+				
+			} // synchronized (stateLock)
 		}
 	}
 }
@@ -0,0 +1,121 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * 
+ * This class decodes and encodes the MMS UtcTime of IEC 61850-8-1, used by Timestamp values.
+ * A time is handled as a long number of nanoseconds since midnight (00:00:00) of 1970-01-01,
+ * and its time quality as an int, so it can be read without creating any object.
+ * 
+ * The 8 bytes of a UtcTime are the seconds on 4 bytes, the fraction of seconds on 3 bytes
+ * and the time quality flags. The fraction has a resolution of 2^-24 seconds, about 60 ns.
+ * 
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import org.jnetpcap.nio.JBuffer;
+
+public class IEC61850_GOOSE_UtcTime
+{
+	// The time quality flags
+	public static final int LEAP_SECONDS_KNOWN		= 0x80;
+	public static final int CLOCK_FAILURE			= 0x40;
+	public static final int CLOCK_NOT_SYNCHRONIZED	= 0x20;
+	
+	// The time accuracy is the number of significant bits of the fraction of seconds
+	public static final int TIME_ACCURACY_MASK		= 0x1F;
+	
+	// Encoded length of a UtcTime
+	static final int UTC_TIME_LENGTH				= 8;
+	
+	private static final long NANOS_PER_SECOND		= 1000000000L;
+	private static final long MAX_FRACTION			= 0xFFFFFFL;
+	
+	public static boolean leapSecondsKnown(int timeQuality)
+	{
+		return (timeQuality & LEAP_SECONDS_KNOWN) != 0;
+	}
+	
+	public static boolean clockFailure(int timeQuality)
+	{
+		return (timeQuality & CLOCK_FAILURE) != 0;
+	}
+	
+	public static boolean clockNotSynchronized(int timeQuality)
+	{
+		return (timeQuality & CLOCK_NOT_SYNCHRONIZED) != 0;
+	}
+	
+	public static int timeAccuracy(int timeQuality)
+	{
+		return timeQuality & TIME_ACCURACY_MASK;
+	}
+	
+	/**
+	 * @param nanos	Nanoseconds since midnight (00:00:00) of 1970-01-01
+	 * @return		Milliseconds since midnight (00:00:00) of 1970-01-01, as used by java.util.Date
+	 */
+	public static long toMillis(long nanos)
+	{
+		return nanos / 1000000L;
+	}
+	
+	/**
+	 * @param millis	Milliseconds since midnight (00:00:00) of 1970-01-01
+	 * @return			Nanoseconds since midnight (00:00:00) of 1970-01-01
+	 */
+	public static long fromMillis(long millis)
+	{
+		return millis * 1000000L;
+	}
+	
+	// Decodes the seconds and the fraction of seconds as nanoseconds
+	static long decodeNanos(JBuffer payload, int offset)
+	{
+		long seconds = payload.getUInt(offset);
+		long fraction = (payload.getUByte(offset + 4) << 16) | (payload.getUByte(offset + 5) << 8) 
+			| payload.getUByte(offset + 6);
+		
+		return seconds * NANOS_PER_SECOND + ((fraction * NANOS_PER_SECOND) >>> 24);
+	}
+	
+	// Decodes the time quality flags
+	static int decodeTimeQuality(JBuffer payload, int offset)
+	{
+		return payload.getUByte(offset + 7);
+	}
+	
+	// Encodes a time before 2106. The fraction is rounded up, so decoding gives back the same time
+	static void encode(JBuffer payload, int offset, long nanos, int timeQuality)
+	{
+		long seconds = nanos / NANOS_PER_SECOND;
+		long fraction = (((nanos % NANOS_PER_SECOND) << 24) + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+		
+		if (fraction > MAX_FRACTION)
+			fraction = MAX_FRACTION;
+		
+		payload.setUInt(offset, seconds);
+		payload.setUByte(offset + 4, (int) (fraction >> 16));
+		payload.setUByte(offset + 5, (int) ((fraction >> 8) & 0xFF));
+		payload.setUByte(offset + 6, (int) (fraction & 0xFF));
+		payload.setUByte(offset + 7, timeQuality & 0xFF);
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteOrder;
+
+import jgoose.*;
+
+import org.jnetpcap.nio.JBuffer;
+import org.kohsuke.args4j.*;
+
+/**
+ *
+ * This program compares the generic decoder and encoder of IEC61850_GOOSE_Data, which look at the
+ * type and length of every value, with the handles built for the layout of the data set.
+ *
+ * The data set holds entries of every supported type in turn. Each mode is run a number of
+ * rounds, so the JIT compiles both paths before the last rounds, which are the ones to compare.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+public class jgoose_codec_benchmark {
+
+	// Type and length of the entries, used in turn
+	private static final String[] TYPES = { "BOOLEAN", "INT32", "INT16U", "FLOAT32", "FLOAT64", "Quality", "Timestamp" };
+
+	public static void main(String[] args) throws IEC61850_GOOSE_Exception {
+
+		/*
+		 * We process the command line parameters
+		 */
+		final class cmdLineOptions {
+			@Option(name = "-entries", metaVar = "<count>",
+			usage = "number of entries of the data set")
+			int entries = 64;
+
+			@Option(name = "-n", metaVar = "<count>",
+			usage = "number of frames decoded and encoded per round")
+			int count = 1000000;
+
+			@Option(name = "-rounds", metaVar = "<count>",
+			usage = "number of rounds per mode")
+			int rounds = 5;
+		}
+
+		final cmdLineOptions options = new cmdLineOptions();
+		final CmdLineParser parser = new CmdLineParser(options);
+
+        try {
+            parser.parseArgument(args);
+
+        } catch( CmdLineException e ) {
+            System.err.println(e.getMessage());
+            System.err.println("java jgoose_codec_benchmark [options...]");
+            parser.printUsage(System.err);
+            System.err.println();
+
+            return;
+        }
+
+		// We build a data set and encode it once to get a payload
+		IEC61850_GOOSE_Data source = new IEC61850_GOOSE_Data(options.entries);
+		int length = 0;
+
+		for (int position = 0; position < options.entries; position++)
+		{
+			String type = TYPES[position % TYPES.length];
+
+			source.setType(position, IEC61850_GOOSE_MMS_DataType.get(type));
+			source.setLength(position, IEC61850_GOOSE_MMS_DataType.get_size(type));
+			source.setLong(position, position);
+
+			length += 2 + source.getLength(position);
+		}
+
+		JBuffer payload = new JBuffer(length);
+		payload.order(ByteOrder.BIG_ENDIAN);
+		source.encodeData(payload);
+
+		IEC61850_GOOSE_Data generic = new IEC61850_GOOSE_Data(options.entries);
+		generic.setSpecialisedCodec(false);
+
+		IEC61850_GOOSE_Data specialised = new IEC61850_GOOSE_Data(options.entries);
+		specialised.setSpecialisedCodec(true);
+
+		for (int round = 0; round < options.rounds; round++)
+		{
+			System.out.printf("round %d: generic decode=%dns encode=%dns, specialised decode=%dns encode=%dns\n", round,
+					decode(generic, payload, options.count), encode(generic, payload, options.count),
+					decode(specialised, payload, options.count), encode(specialised, payload, options.count));
+		}
+	}
+
+	// Returns the average time to decode the payload, in nanoseconds
+	private static long decode(IEC61850_GOOSE_Data data, JBuffer payload, int count) throws IEC61850_GOOSE_Exception
+	{
+		long start = System.nanoTime();
+
+		for (int frame = 0; frame < count; frame++)
+			data.decodeData(payload);
+
+		return (System.nanoTime() - start) / count;
+	}
+
+	// Returns the average time to encode the data set, in nanoseconds
+	private static long encode(IEC61850_GOOSE_Data data, JBuffer payload, int count)
+	{
+		long start = System.nanoTime();
+
+		for (int frame = 0; frame < count; frame++)
+			data.encodeData(payload);
+
+		return (System.nanoTime() - start) / count;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import jgoose.*;
+
+import org.jdom2.JDOMException;
+import org.kohsuke.args4j.*;
+
+/**
+ *
+ * This program generates the class of the data set of a <GSEControl> block of an ICD file.
+ * It is meant to run as a build step, before compiling the handlers that use the class.
+ *
+ * The class has one typed field per signal. Instead of getValueByKey("casdu.ioa.ti") and a cast,
+ * a handler calls decode(gooseFrame.gooseData) and reads the fields, or sets them and calls
+ * encode(gooseFrame.gooseData).
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+public class jgoose_generate {
+
+	public static void main(String[] args) throws IOException {
+
+		/*
+		 * We process the command line parameters
+		 */
+		final class cmdLineOptions {
+			@Option(name = "-icd", metaVar = "<icd file name>", required = true,
+			usage = "specifies the name of the ICD file example folder/file.icd")
+			String icdfile;
+
+			@Option(name = "-ied", metaVar = "<ied name>", required = true,
+			usage = "specifies the name of the relevant IED in the ICD file")
+			String ied_name;
+
+			@Option(name = "-appid", metaVar = "<appID name>", required = true,
+			usage = "specifies the appID of the <GSEControl> block")
+			String appID_name;
+
+			@Option(name = "-out", metaVar = "<folder>",
+			usage = "root folder of the generated sources")
+			String output_folder = ".";
+
+			@Option(name = "-package", metaVar = "<package name>",
+			usage = "package of the generated class, the default package if not set")
+			String package_name;
+
+			@Option(name = "-class", metaVar = "<class name>",
+			usage = "name of the generated class, the name of the data set if not set")
+			String class_name;
+		}
+
+		final cmdLineOptions options = new cmdLineOptions();
+		final CmdLineParser parser = new CmdLineParser(options);
+
+        try {
+            parser.parseArgument(args);
+
+        } catch( CmdLineException e ) {
+            System.err.println(e.getMessage());
+            System.err.println("java jgoose_generate [options...]");
+            parser.printUsage(System.err);
+            System.err.println();
+
+            return;
+        }
+
+		try
+		{
+			IEC61850_GOOSE_DataSetGenerator generator
+				= new IEC61850_GOOSE_DataSetGenerator(options.icdfile, options.ied_name);
+
+			File file = generator.generate(options.appID_name, options.package_name, options.class_name,
+					new File(options.output_folder));
+
+			System.out.println("Generated " + file);
+		}
+		catch (IEC61850_GOOSE_Exception e)
+		{
+			System.err.println("Could not generate the data set class");
+			e.printStackTrace();
+			System.exit(1);
+		}
+		catch (JDOMException e)
+		{
+			System.err.println("Could not read the ICD file");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
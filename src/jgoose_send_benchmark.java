@@ -0,0 +1,349 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import jgoose.*;
+
+import org.jnetpcap.nio.JBuffer;
+import org.kohsuke.args4j.*;
+
+import com.gremwell.jnetbridge.*;
+
+/**
+ *
+ * This program measures the time from triggerEvent() to the moment the GOOSE message is passed
+ * to the network interface, first through the transmit thread and the port egress queue, then
+ * with direct send from the calling thread.
+ *
+ * The port numbers the packets it is given, and notes the first one whose stNum differs from the
+ * previous packet, which is the triggered message. The message is sent when the egress latency
+ * counter of the port reaches that number of samples, at the time of that sample. The benchmark
+ * sleeps while it waits, so it does not take a core from the threads it measures. Messages not
+ * sent within one second, and messages followed by another packet before the benchmark could read
+ * the time of their sample, are discarded and counted.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+public class jgoose_send_benchmark {
+	
+	// Time between two looks at the egress counter
+	private static final long WAIT_NANOS = 20000;
+	
+	/**
+	 * 
+	 * This port numbers the packets given to it in the order of their egress samples, and finds the
+	 * first packet of a new stNum after watch()
+	 * 
+	 */
+	static class Benchmark_Port extends PcapPort
+	{
+		private final byte[] bytes = new byte[1518];
+		
+		private long packets = 0;
+		private long lastStNum = -1;
+		private boolean watching = false;
+		private volatile long triggeredPacket = -1;
+		
+		Benchmark_Port(String name, int timeout) throws PcapException
+		{
+			super(name, timeout);
+		}
+		
+		// The next packet whose stNum changes is the triggered message
+		synchronized void watch()
+		{
+			watching = true;
+			triggeredPacket = -1;
+		}
+		
+		// Number of the triggered packet, counted from 1 like the egress samples, or -1
+		long getTriggeredPacket()
+		{
+			return triggeredPacket;
+		}
+		
+		// The packet is numbered once passed on, so reading its stNum does not delay it
+		@Override
+		public synchronized void send(JBuffer packet)
+		{
+			super.send(packet);
+			count(packet);
+		}
+		
+		@Override
+		public synchronized void sendNow(JBuffer packet) throws PcapException
+		{
+			super.sendNow(packet);
+			count(packet);
+		}
+		
+		private void count(JBuffer packet)
+		{
+			packets++;
+			
+			long stNum = stNum(packet);
+			
+			if (watching && (stNum != lastStNum))
+			{
+				watching = false;
+				triggeredPacket = packets;
+			}
+			
+			lastStNum = stNum;
+		}
+		
+		// Reads the stNum of a GOOSE packet, with or without VLAN tag, or returns -1
+		private long stNum(JBuffer packet)
+		{
+			int size = Math.min(packet.size(), bytes.length);
+			packet.getByteArray(0, bytes, 0, size);
+			
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+			int offset = (buffer.getShort(12) == (short) 0x8100) ? 18 : 14;
+			
+			if ((size < offset + 4) || (buffer.getShort(offset - 2) != (short) 0x88B8))
+				return -1;
+			
+			// We skip the APPID, length, reserved fields and the goosePdu tag
+			int end = Math.min(size, offset + (buffer.getShort(offset + 2) & 0xFFFF));
+			int position = offset + 9;
+			
+			if ((position > end) || ((buffer.get(position - 1) & 0xFF) != 0x61))
+				return -1;
+			
+			// We walk the goosePdu fields until the stNum
+			int length = buffer.get(position) & 0xFF;
+			position += (length > 0x80) ? 1 + (length & 0x7F) : 1;
+			
+			while (position + 2 <= end)
+			{
+				int tag = buffer.get(position) & 0xFF;
+				length = buffer.get(position + 1) & 0xFF;
+				position += 2;
+				
+				if (length > 0x80)
+				{
+					int lengthBytes = length & 0x7F;
+					if ((lengthBytes > 2) || (position + lengthBytes > end))
+						return -1;
+					
+					length = 0;
+					for (int i = 0; i < lengthBytes; i++)
+						length = (length << 8) | (buffer.get(position++) & 0xFF);
+				}
+				
+				if (position + length > end)
+					return -1;
+				
+				if (tag == 0x85)
+				{
+					if ((length == 0) || (length > 8))
+						return -1;
+					
+					long stNum = 0;
+					for (int i = 0; i < length; i++)
+						stNum = (stNum << 8) | (buffer.get(position + i) & 0xFF);
+					
+					return stNum;
+				}
+				
+				position += length;
+			}
+			
+			return -1;
+		}
+	}
+
+	public static void main(String[] args) throws PcapException, IOException, InterruptedException {
+
+		final int receiveTimeoutMs = 1;
+
+		/*
+		 * We process the command line parameters
+		 */
+		final class cmdLineOptions {
+			@Option(name = "-icd", metaVar = "<icd file name>", required = true,
+			usage = "specifies the name of the ICD file example folder/file.icd")
+			String icdfile;
+
+			@Option(name = "-ied", metaVar = "<ied name>", required = true,
+			usage = "specifies the name of the relevant IED in the ICD file")
+			String ied_name;
+
+			@Option(name = "-if", metaVar = "<net interface MAC>", required = true,
+			usage = "specifies the MAC of the network interface 00:00:00:00:00:00")
+			String network_MAC;
+
+			@Option(name = "-appid", metaVar = "<appID name>", required = true,
+			usage = "specifies the appID of the transmit <GSEControl> block")
+			String appID_name;
+
+			@Option(name = "-n", metaVar = "<count>",
+			usage = "number of triggered messages per mode")
+			int count = 1000;
+
+			@Option(name = "-period", metaVar = "<ms>",
+			usage = "delay between two triggered messages, must be larger than MinTime")
+			int period = 20;
+		}
+
+		final cmdLineOptions options = new cmdLineOptions();
+		final CmdLineParser parser = new CmdLineParser(options);
+
+        try {
+            parser.parseArgument(args);
+
+        } catch( CmdLineException e ) {
+            System.err.println(e.getMessage());
+            System.err.println("java jgoose_send_benchmark [options...]");
+            parser.printUsage(System.err);
+            System.err.println();
+
+            return;
+        }
+
+        // The event handler only changes the state of the message
+        class Benchmark_EventHandler implements IEC61850_GOOSE_FrameEventHandler
+		{
+			@Override
+			public void eventHandler(IEC61850_GOOSE_Frame gooseFrame)
+			{
+				gooseFrame.test = !gooseFrame.test;
+			}
+		}
+
+		final Benchmark_Port goose_port = new Benchmark_Port(PcapUtils.macToName(options.network_MAC),receiveTimeoutMs);
+		IEC61850_GOOSE_API api_instance;
+
+		try
+		{
+			api_instance = new IEC61850_GOOSE_API(options.icdfile, options.ied_name, goose_port);
+			api_instance.registerGSEControlBlock(IEC61850_GOOSE_FrameEventHandlerType.transmit, options.appID_name,
+					new Benchmark_EventHandler());
+
+			api_instance.startIEC61850API();
+			api_instance.enableGSEControlBlock(options.appID_name);
+		}
+		catch ( IEC61850_GOOSE_Exception e )
+		{
+            System.err.println("Could not initialize IEC61850_GOOSE_API");
+            e.printStackTrace();
+            goose_port.close();
+
+            return;
+		}
+
+		// We let the first message go
+		Thread.sleep(100);
+
+		try
+		{
+			api_instance.setDirectSend(options.appID_name, false);
+			long[] queued = measure(api_instance, goose_port, options.appID_name, options.count, options.period);
+
+			api_instance.setDirectSend(options.appID_name, true);
+			long[] direct = measure(api_instance, goose_port, options.appID_name, options.count, options.period);
+
+			print("queued", queued);
+			print("direct", direct);
+
+			api_instance.stopIEC61850API();
+		}
+		catch (IEC61850_GOOSE_Exception e)
+		{
+			System.err.println("Benchmark failed");
+			e.printStackTrace();
+		}
+
+		goose_port.close();
+	}
+
+	// Returns the trigger to send time of each message sent, in nanoseconds
+	private static long[] measure(IEC61850_GOOSE_API api_instance, Benchmark_Port goose_port, String appID_name,
+			int count, int period) throws IEC61850_GOOSE_Exception, InterruptedException
+	{
+		LatencyCounter egressLatency = goose_port.getEgressLatency();
+		long[] samples = new long[count];
+		int measured = 0;
+		int discarded = 0;
+		
+		for (int position = 0; position < count; position++)
+		{
+			Thread.sleep(period);
+			
+			goose_port.watch();
+			long start = System.nanoTime();
+			
+			api_instance.triggerEvent(appID_name);
+			
+			// We wait until the port sends the triggered message, for at most one second
+			long end = -1;
+			
+			while (System.nanoTime() - start < 1000000000L)
+			{
+				long packet = goose_port.getTriggeredPacket();
+				long sent = egressLatency.getSamples();
+				
+				if ((packet != -1) && (sent >= packet))
+				{
+					long sampleNanos = egressLatency.getLastSampleNanos();
+					
+					// The time is the one of the triggered message if no packet followed it
+					if ((sent == packet) && (egressLatency.getSamples() == packet))
+						end = sampleNanos;
+					
+					break;
+				}
+				
+				LockSupport.parkNanos(WAIT_NANOS);
+			}
+			
+			if (end == -1)
+				discarded++;
+			
+			else
+				samples[measured++] = end - start;
+		}
+		
+		if (discarded != 0)
+			System.out.printf("%d messages of %d discarded\n", discarded, count);
+		
+		return Arrays.copyOf(samples, measured);
+	}
+	
+	private static void print(String mode, long[] samples)
+	{
+		if (samples.length == 0)
+		{
+			System.out.printf("%s: no message sent\n", mode);
+			return;
+		}
+		
+		Arrays.sort(samples);
+
+		System.out.printf("%s: median=%dus p99=%dus max=%dus\n", mode,
+				samples[samples.length / 2] / 1000,
+				samples[(int) (samples.length * 0.99)] / 1000,
+				samples[samples.length - 1] / 1000);
+	}
+}
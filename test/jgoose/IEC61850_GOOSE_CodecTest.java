@@ -0,0 +1,233 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class checks IEC61850_GOOSE_Codec on ByteBuffers. Frames are encoded with and without a
+ * goID, at offset 0 and at offset 14 (after an Ethernet header), with data sets from 10 to 1300
+ * bytes and integer fields from 1 to 8 bytes, then decoded by another codec and compared field by
+ * field. The buffers are big endian and little endian, since the fields of 2, 4 and 8 bytes are
+ * read in one access. Truncated frames and wrong tags have to be rejected.
+ *
+ * Run without arguments. The exit code is 1 when a check fails.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+public class IEC61850_GOOSE_CodecTest
+{
+	private static final String GO_CB_REF = "IED1LD0/LLN0$GO$gcb01";
+	private static final String DAT_SET = "IED1LD0/LLN0$DataSet01";
+	private static final String[] GO_IDS = { null, "GOOSE_ID_1" };
+	private static final int[] OFFSETS = { 0, 14 };
+	private static final int[] DATA_LENGTHS = { 10, 100, 127, 128, 255, 256, 1000, 1300 };
+	private static final int[] NUMBER_LENGTHS = { 1, 2, 3, 4, 5, 8 };
+	private static final ByteOrder[] ORDERS = { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN };
+	
+	private static final long UTC = 1700000000123456789L;
+	private static final int TIME_QUALITY = 0x8A;
+	
+	private static int checks = 0;
+	private static int failures = 0;
+	
+	public static void main(String[] args)
+	{
+		for (ByteOrder order : ORDERS)
+			for (String goID : GO_IDS)
+				for (int offset : OFFSETS)
+					for (int dataLength : DATA_LENGTHS)
+						for (int numberLength : NUMBER_LENGTHS)
+							roundTrip(order, goID, offset, dataLength, numberLength);
+		
+		for (String goID : GO_IDS)
+			for (int offset : OFFSETS)
+				for (int dataLength : DATA_LENGTHS)
+					rejections(goID, offset, dataLength);
+		
+		System.out.printf("%d checks, %d failures\n", checks, failures);
+		
+		if (failures == 0)
+			System.out.println("PASSED");
+		
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	// Encodes a frame, fills its fields and data set, then decodes it with another codec
+	private static void roundTrip(ByteOrder order, String goID, int offset, int dataLength, int numberLength)
+	{
+		String name = String.format("%s goID=%s offset=%d data=%d numbers=%d", order, goID, offset, dataLength, numberLength);
+		ByteBuffer buffer = ByteBuffer.allocate(offset + 1500).order(order);
+		
+		long number = numberValue(numberLength);
+		int size = encode(buffer, goID, offset, dataLength, numberLength, number);
+		
+		IEC61850_GOOSE_Codec decoder = new IEC61850_GOOSE_Codec();
+		buffer.limit(offset + size);
+		
+		check(name + " decode", decoder.decode(buffer, offset, size), 0);
+		check(name + " appID", decoder.appID(), 0x3FFF);
+		check(name + " length", decoder.length(), size);
+		check(name + " goCBref", decoder.goCBref(), GO_CB_REF);
+		check(name + " timeAllowedToLive", decoder.timeAllowedToLive(), 2000);
+		check(name + " datSet", decoder.datSet(), DAT_SET);
+		check(name + " goIDPresent", decoder.goIDPresent(), goID != null);
+		
+		if (goID != null)
+		{
+			check(name + " goID", decoder.goID(), goID);
+			check(name + " goIDEquals", decoder.goIDEquals(goID.getBytes(StandardCharsets.US_ASCII)), true);
+			check(name + " goIDEquals other", decoder.goIDEquals("GOOSE_ID_2".getBytes(StandardCharsets.US_ASCII)), false);
+			check(name + " goIDHash", decoder.goIDHash(), goID.hashCode());
+		}
+		else
+			check(name + " goIDHash", decoder.goIDHash(), 0);
+		
+		// The fraction has 24 bits, so the time comes back rounded up to the next 2^-24 second
+		long utc = decoder.utc();
+		check(name + " utc", (utc >= UTC) && (utc - UTC < 60), true);
+		check(name + " utcTimeQuality", decoder.utcTimeQuality(), TIME_QUALITY);
+		check(name + " stNum", decoder.stNum(), number);
+		check(name + " sqNum", decoder.sqNum(), number ^ 1);
+		check(name + " test", decoder.test(), true);
+		check(name + " confRev", decoder.confRev(), number);
+		check(name + " ndsCom", decoder.ndsCom(), false);
+		check(name + " numDatSetEntries", decoder.numDatSetEntries(), dataLength / 2);
+		check(name + " gooseDataLength", decoder.gooseDataLength(), dataLength);
+		
+		int dataPosition = decoder.gooseDataPosition();
+		boolean dataOK = (dataPosition + dataLength == offset + size);
+		
+		for (int index = 0; dataOK && (index < dataLength); index++)
+			dataOK = (buffer.get(dataPosition + index) == (byte) index);
+		
+		check(name + " data", dataOK, true);
+		
+		// The values written in place are read back, a decoded time stays the same
+		decoder.utc(utc, TIME_QUALITY);
+		check(name + " utc in place", decoder.utc(), utc);
+		decoder.utcFraction(0x123456FFL);
+		check(name + " utcFraction", decoder.utcTimeQuality(), 0xFF);
+		decoder.sqNum(number ^ 2);
+		check(name + " sqNum in place", decoder.sqNum(), number ^ 2);
+		check(name + " stNum in place", decoder.stNum(), number);
+	}
+	
+	// Frames cut short and frames with a wrong tag are rejected. The data set may be cut by the
+	// capture, but it has to fit in the GOOSE length
+	private static void rejections(String goID, int offset, int dataLength)
+	{
+		String name = String.format("goID=%s offset=%d data=%d", goID, offset, dataLength);
+		ByteBuffer buffer = ByteBuffer.allocate(offset + 1500);
+		
+		int size = encode(buffer, goID, offset, dataLength, 4, 1);
+		IEC61850_GOOSE_Codec decoder = new IEC61850_GOOSE_Codec();
+		
+		buffer.limit(offset + size);
+		check(name + " decode", decoder.decode(buffer, offset, size), 0);
+		
+		int dataPosition = decoder.gooseDataPosition();
+		int stNum_tag = offset + decoder.stNum_tag_position;
+		
+		check(name + " data past the GOOSE length", decoder.decode(buffer, offset, size - 1), IEC61850_GOOSE_Codec.ERROR_TRUNCATED);
+		
+		buffer.limit(dataPosition + 1);
+		check(name + " data cut by the capture", decoder.decode(buffer, offset, size), 0);
+		
+		buffer.limit(dataPosition - 3);
+		check(name + " truncated header", decoder.decode(buffer, offset, size), IEC61850_GOOSE_Codec.ERROR_TRUNCATED);
+		
+		buffer.limit(stNum_tag + 1);
+		check(name + " truncated stNum", decoder.decode(buffer, offset, size), IEC61850_GOOSE_Codec.ERROR_TRUNCATED);
+		
+		buffer.limit(offset + 4);
+		check(name + " truncated APDU", decoder.decode(buffer, offset, size), IEC61850_GOOSE_Codec.ERROR_TRUNCATED);
+		
+		// We break the tag of stNum
+		buffer.limit(offset + size);
+		buffer.put(stNum_tag, (byte) 0x99);
+		
+		int result = new IEC61850_GOOSE_Codec().decode(buffer, offset, size);
+		check(name + " wrong tag", (result >= -12) && (result <= -1), true);
+	}
+	
+	private static int encode(ByteBuffer buffer, String goID, int offset, int dataLength, int numberLength, long number)
+	{
+		IEC61850_GOOSE_Codec encoder = new IEC61850_GOOSE_Codec();
+		int goID_length = (goID == null) ? 0 : goID.length();
+		
+		int size = encoder.encode(buffer, offset, GO_CB_REF.length(), 2, DAT_SET.length(), goID_length, 
+				numberLength, numberLength, 1, numberLength, 1, 2, dataLength);
+		
+		encoder.appID(0x3FFF);
+		encoder.goCBref(GO_CB_REF);
+		encoder.timeAllowedToLive(2000);
+		encoder.datSet(DAT_SET);
+		
+		if (goID != null)
+			encoder.goID(goID);
+		
+		encoder.utc(UTC, TIME_QUALITY);
+		encoder.stNum(number);
+		encoder.sqNum(number ^ 1);
+		encoder.test(true);
+		encoder.confRev(number);
+		encoder.ndsCom(false);
+		encoder.numDatSetEntries(dataLength / 2);
+		
+		int dataPosition = encoder.gooseDataPosition();
+		
+		for (int index = 0; index < dataLength; index++)
+			buffer.put(dataPosition + index, (byte) index);
+		
+		return size;
+	}
+	
+	// A value using every byte of the field, with the high bit set
+	private static long numberValue(int length)
+	{
+		long value = 0;
+		
+		for (int index = 0; index < length; index++)
+			value = (value << 8) | (0x81 + index * 0x11);
+		
+		return value;
+	}
+	
+	private static void check(String name, Object value, Object expected)
+	{
+		checks++;
+		
+		if (!value.equals(expected))
+		{
+			failures++;
+			System.out.println("FAILED: " + name + ": " + value + " instead of " + expected);
+		}
+	}
+	
+	private static void check(String name, long value, long expected)
+	{
+		check(name, Long.valueOf(value), Long.valueOf(expected));
+	}
+}
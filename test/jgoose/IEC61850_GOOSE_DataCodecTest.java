@@ -0,0 +1,325 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class checks that the handles built by IEC61850_GOOSE_DataCodec decode and encode data sets
+ * exactly like the generic codec. Random data sets are made of every accepted type and length,
+ * with structures nested in structures and tags without a decoder. Each payload is decoded by both
+ * codecs and the values compared, then the values are changed the same way in both data sets and
+ * encoded, and the payloads compared byte for byte. The payload encoded by the generic codec has
+ * to be the one decoded.
+ *
+ * The payloads are jnetpcap buffers, so the jnetpcap library has to be loadable. Run with an
+ * optional number of data sets, 2000 by default. The exit code is 1 when a check fails.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+import org.jnetpcap.nio.JBuffer;
+
+public class IEC61850_GOOSE_DataCodecTest
+{
+	private static final int MAX_ENTRIES = 40;
+	private static final int MAX_DEPTH = 2;
+	
+	private static int checks = 0;
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception
+	{
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		Random random = new Random(61850);
+		
+		for (int index = 0; index < count; index++)
+			compare("data set " + index, random, index % 10 == 9);
+		
+		System.out.printf("%d checks, %d failures\n", checks, failures);
+		
+		if (failures == 0)
+			System.out.println("PASSED");
+		
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	// Decodes and encodes one random data set with both codecs
+	private static void compare(String name, Random random, boolean withoutDecoder) throws Exception
+	{
+		int numEntries = 1 + random.nextInt(MAX_ENTRIES);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		// The first entry is then a tag without a decoder, the others may be
+		if (withoutDecoder)
+			writeTag(bytes, IEC61850_GOOSE_MMS_DataType.visible_string.getTag(), randomBytes(random, random.nextInt(20)));
+		
+		for (int entry = withoutDecoder ? 1 : 0; entry < numEntries; entry++)
+			writeNode(bytes, random, 0, withoutDecoder);
+		
+		byte payloadBytes[] = bytes.toByteArray();
+		
+		IEC61850_GOOSE_Data generic = new IEC61850_GOOSE_Data(numEntries);
+		IEC61850_GOOSE_Data specialised = new IEC61850_GOOSE_Data(numEntries);
+		
+		generic.setSpecialisedCodec(false);
+		specialised.setSpecialisedCodec(true);
+		
+		// The second decode runs the handles built by the first one
+		for (int round = 0; round < 2; round++)
+		{
+			generic.decodeData(buffer(payloadBytes));
+			specialised.decodeData(buffer(payloadBytes));
+			
+			compareValues(name + " decode " + round, generic, specialised);
+		}
+		
+		if (withoutDecoder)
+		{
+			// Tags without a decoder cannot be encoded, by either codec
+			check(name + " generic encode refused", encodeRefused(generic, payloadBytes.length), true);
+			check(name + " specialised encode refused", encodeRefused(specialised, payloadBytes.length), true);
+			return;
+		}
+		
+		check(name + " generic round trip", Arrays.equals(encode(generic, payloadBytes.length), payloadBytes), true);
+		check(name + " specialised round trip", Arrays.equals(encode(specialised, payloadBytes.length), payloadBytes), true);
+		
+		// We change the values the same way in both data sets
+		long seed = random.nextLong();
+		changeValues(generic, new Random(seed));
+		changeValues(specialised, new Random(seed));
+		
+		byte genericBytes[] = encode(generic, payloadBytes.length);
+		byte specialisedBytes[] = encode(specialised, payloadBytes.length);
+		
+		check(name + " encode", Arrays.equals(genericBytes, specialisedBytes), true);
+		
+		// The changed values come back from both payloads
+		generic.decodeData(buffer(specialisedBytes));
+		specialised.decodeData(buffer(genericBytes));
+		compareValues(name + " decode changed", generic, specialised);
+	}
+	
+	// Writes a node with a random type and length, structures hold 1 to 4 members
+	private static void writeNode(ByteArrayOutputStream bytes, Random random, int depth, boolean withoutDecoder)
+	{
+		int choice = random.nextInt(withoutDecoder ? 11 : 10);
+		
+		if ((choice == 0) && (depth < MAX_DEPTH))
+		{
+			ByteArrayOutputStream members = new ByteArrayOutputStream();
+			int numMembers = 1 + random.nextInt(4);
+			
+			for (int member = 0; member < numMembers; member++)
+				writeNode(members, random, depth + 1, withoutDecoder);
+			
+			writeTag(bytes, IEC61850_GOOSE_MMS_DataType.structure.getTag(), members.toByteArray());
+			return;
+		}
+		
+		switch (choice)
+		{
+			case 1:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.booln.getTag(), new byte[] { (byte) random.nextInt(2) });
+				break;
+				
+			case 2:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.integer.getTag(), randomBytes(random, pick(random, 1, 2, 4, 8)));
+				break;
+				
+			case 3:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.unsign.getTag(), randomBytes(random, pick(random, 1, 2, 4)));
+				break;
+				
+			case 4:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.float_point.getTag(), floatBytes(random, pick(random, 4, 8)));
+				break;
+				
+			case 5:
+			case 6:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.bit_string.getTag(), bitStringBytes(random, 1 + random.nextInt(9)));
+				break;
+				
+			case 7:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.utc_time.getTag(), randomBytes(random, IEC61850_GOOSE_UtcTime.UTC_TIME_LENGTH));
+				break;
+				
+			case 10:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.visible_string.getTag(), randomBytes(random, random.nextInt(20)));
+				break;
+				
+			default:
+				writeTag(bytes, IEC61850_GOOSE_MMS_DataType.integer.getTag(), randomBytes(random, 4));
+				break;
+		}
+	}
+	
+	private static void writeTag(ByteArrayOutputStream bytes, int tag, byte value[])
+	{
+		bytes.write(tag);
+		
+		if (value.length < 0x80)
+			bytes.write(value.length);
+		
+		else
+		{
+			bytes.write(0x81);
+			bytes.write(value.length);
+		}
+		
+		bytes.write(value, 0, value.length);
+	}
+	
+	private static int pick(Random random, int... lengths)
+	{
+		return lengths[random.nextInt(lengths.length)];
+	}
+	
+	private static byte[] randomBytes(Random random, int length)
+	{
+		byte value[] = new byte[length];
+		random.nextBytes(value);
+		
+		return value;
+	}
+	
+	// Floats that survive the conversion to double and back
+	private static byte[] floatBytes(Random random, int length)
+	{
+		byte value[] = new byte[length];
+		long bits = (length == 4) 
+				? Float.floatToIntBits((float) random.nextGaussian() * 1000)
+				: Double.doubleToLongBits(random.nextGaussian() * 1e6);
+		
+		for (int index = length - 1; index >= 0; index--, bits >>>= 8)
+			value[index] = (byte) bits;
+		
+		return value;
+	}
+	
+	// The number of unused bits, then bits that are 0 where unused
+	private static byte[] bitStringBytes(Random random, int length)
+	{
+		byte value[] = randomBytes(random, length);
+		
+		if (length == 1)
+			value[0] = 0;
+		
+		else
+		{
+			int unusedBits = random.nextInt(8);
+			value[0] = (byte) unusedBits;
+			value[length - 1] &= (byte) (0xFF << unusedBits);
+		}
+		
+		return value;
+	}
+	
+	private static void changeValues(IEC61850_GOOSE_Data data, Random random)
+	{
+		for (int leaf = 0; leaf < data.getLeafCount(); leaf++)
+		{
+			IEC61850_GOOSE_MMS_DataType type = data.getLeafType(leaf);
+			
+			if (random.nextInt(3) == 0)
+				continue;
+			
+			if (type == IEC61850_GOOSE_MMS_DataType.booln)
+				data.setLeafBoolean(leaf, random.nextBoolean());
+			
+			else if ((type == IEC61850_GOOSE_MMS_DataType.integer) || (type == IEC61850_GOOSE_MMS_DataType.unsign))
+				data.setLeafLong(leaf, random.nextLong());
+			
+			else if (type == IEC61850_GOOSE_MMS_DataType.float_point)
+				data.setLeafDouble(leaf, random.nextInt(1 << 20) / 16.0);
+			
+			else if (type == IEC61850_GOOSE_MMS_DataType.utc_time)
+			{
+				data.setLeafLong(leaf, 1700000000000000000L + random.nextInt(1000000000));
+				data.setLeafTimeQuality(leaf, random.nextInt(256));
+			}
+		}
+	}
+	
+	private static void compareValues(String name, IEC61850_GOOSE_Data generic, IEC61850_GOOSE_Data specialised)
+	{
+		check(name + " leaf count", generic.getLeafCount(), specialised.getLeafCount());
+		
+		for (int leaf = 0; leaf < generic.getLeafCount(); leaf++)
+		{
+			check(name + " leaf " + leaf + " type", generic.getLeafType(leaf), specialised.getLeafType(leaf));
+			check(name + " leaf " + leaf + " length", generic.getLeafLength(leaf), specialised.getLeafLength(leaf));
+			check(name + " leaf " + leaf + " value", generic.getLeafValue(leaf), specialised.getLeafValue(leaf));
+			
+			if (generic.getLeafType(leaf) == IEC61850_GOOSE_MMS_DataType.utc_time)
+				check(name + " leaf " + leaf + " time quality", generic.getLeafTimeQuality(leaf), specialised.getLeafTimeQuality(leaf));
+		}
+	}
+	
+	private static JBuffer buffer(byte payloadBytes[])
+	{
+		JBuffer payload = new JBuffer(payloadBytes.length);
+		
+		payload.order(ByteOrder.BIG_ENDIAN);
+		payload.setByteArray(0, payloadBytes);
+		
+		return payload;
+	}
+	
+	private static byte[] encode(IEC61850_GOOSE_Data data, int length)
+	{
+		JBuffer payload = new JBuffer(length);
+		
+		payload.order(ByteOrder.BIG_ENDIAN);
+		data.encodeData(payload);
+		
+		return payload.getByteArray(0, new byte[length], 0, length);
+	}
+	
+	private static boolean encodeRefused(IEC61850_GOOSE_Data data, int length)
+	{
+		try
+		{
+			encode(data, length);
+			return false;
+		}
+		catch (UnsupportedOperationException e)
+		{
+			return true;
+		}
+	}
+	
+	private static void check(String name, Object value, Object expected)
+	{
+		checks++;
+		
+		if (!Objects.deepEquals(value, expected))
+		{
+			failures++;
+			System.out.println("FAILED: " + name + ": " + value + " instead of " + expected);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ *  This file is part of jgoose.
+ *
+ *  jgoose is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jgoose is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jgoose.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ *
+ * This class stresses IEC61850_GOOSE_TimerWheel from several threads. The threads arm, rearm and
+ * cancel a few shared timers at random, with deadlines in the past, within one tick, within one
+ * turn of the wheel and beyond. Every arming has to end with exactly one call to expired(),
+ * unless cancel() reported that it disarmed the timer first.
+ *
+ * A timer is armed by the thread that moves it from IDLE to ARMED, and goes back to IDLE when it
+ * fires or when a cancel() succeeds, so a second call to expired() for the same arming is seen as
+ * a timer firing while IDLE.
+ *
+ * Run without arguments. The exit code is 1 when a check fails.
+ *
+ * @author  Philippe Venne
+ * @version 0.1
+ *
+ */
+
+package jgoose;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IEC61850_GOOSE_TimerWheelTest
+{
+	private static final int THREADS = 8;
+	private static final int TIMERS = 16;
+	private static final long RUN_MILLIS = 3000;
+	private static final long SETTLE_MILLIS = 5000;
+
+	private static final int IDLE = 0;
+	private static final int ARMED = 1;
+
+	static class CountingTimer extends IEC61850_GOOSE_TimerWheel.Timer
+	{
+		final AtomicInteger state = new AtomicInteger(IDLE);
+		final AtomicLong armings = new AtomicLong();
+		final AtomicLong fires = new AtomicLong();
+		final AtomicLong cancels = new AtomicLong();
+		final AtomicLong extraFires = new AtomicLong();
+
+		@Override
+		protected void expired()
+		{
+			if (state.compareAndSet(ARMED, IDLE))
+				fires.incrementAndGet();
+			else
+				extraFires.incrementAndGet();
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final IEC61850_GOOSE_TimerWheel wheel = new IEC61850_GOOSE_TimerWheel(64, 1);
+		final CountingTimer[] timers = new CountingTimer[TIMERS];
+
+		for (int index = 0; index < TIMERS; index++)
+			timers[index] = new CountingTimer();
+
+		wheel.start();
+
+		final long end = System.nanoTime() + RUN_MILLIS * 1000000L;
+		Thread[] threads = new Thread[THREADS];
+
+		for (int index = 0; index < THREADS; index++)
+		{
+			final long seed = index;
+
+			threads[index] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					Random random = new Random(seed);
+
+					while (System.nanoTime() - end < 0)
+					{
+						CountingTimer timer = timers[random.nextInt(TIMERS)];
+						int action = random.nextInt(20);
+
+						if (action < 10)
+						{
+							if (timer.state.compareAndSet(IDLE, ARMED))
+							{
+								timer.armings.incrementAndGet();
+								wheel.schedule(timer, deadline(random));
+							}
+						}
+						else if (action < 19)
+							wheel.rearm(timer, deadline(random));
+
+						else if (wheel.cancel(timer))
+						{
+							// The arming is over, the timer may be armed again
+							timer.cancels.incrementAndGet();
+							timer.state.set(IDLE);
+						}
+
+						if (random.nextInt(64) == 0)
+							Thread.yield();
+					}
+				}
+			});
+
+			threads[index].start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		// We let the last armings fire, the latest deadline is 100 ms away
+		long settleEnd = System.nanoTime() + SETTLE_MILLIS * 1000000L;
+		boolean settled = false;
+
+		while (!settled && (System.nanoTime() - settleEnd < 0))
+		{
+			settled = true;
+
+			for (CountingTimer timer : timers)
+				settled &= (timer.state.get() == IDLE);
+
+			Thread.sleep(10);
+		}
+
+		// Late extra calls to expired() would show up here
+		Thread.sleep(200);
+		wheel.stop();
+
+		long armings = 0;
+		long fires = 0;
+		long cancels = 0;
+		long extraFires = 0;
+
+		for (CountingTimer timer : timers)
+		{
+			armings += timer.armings.get();
+			fires += timer.fires.get();
+			cancels += timer.cancels.get();
+			extraFires += timer.extraFires.get();
+		}
+
+		System.out.printf("armings %d, fires %d, cancels %d, extra fires %d\n", armings, fires, cancels, extraFires);
+
+		boolean passed = settled && (extraFires == 0) && (armings == fires + cancels);
+
+		if (!settled)
+			System.out.println("FAILED: armed timers did not fire");
+
+		if (extraFires != 0)
+			System.out.println("FAILED: timers fired more than once per arming");
+
+		if (armings != fires + cancels)
+			System.out.println("FAILED: armings are not all fired or cancelled");
+
+		if (passed)
+			System.out.println("PASSED");
+
+		System.exit(passed ? 0 : 1);
+	}
+
+	// Deadlines already passed, within one tick, within one turn of the wheel, or beyond
+	private static long deadline(Random random)
+	{
+		long now = System.nanoTime();
+
+		switch (random.nextInt(8))
+		{
+			case 0:
+				return now - 1000000L;
+
+			case 1:
+				return now + 100000000L;
+
+			case 2:
+			case 3:
+				return now + random.nextInt(1000000);
+
+			default:
+				return now + random.nextInt(20000000);
+		}
+	}
+}